@@ -0,0 +1,55 @@
+package net.suzio.store.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * How benchmark threads pick which Item to work on.
+ */
+public enum KeyDistribution {
+    /**
+     * Every Item equally likely
+     */
+    UNIFORM {
+        @Override
+        int[] sample(int catalogSize, int count, Random random) {
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = random.nextInt(catalogSize);
+            }
+            return keys;
+        }
+    },
+    /**
+     * Zipf-skewed (exponent 1): a handful of hot Items take most of the traffic, the way Apples do in a real store
+     */
+    HOT {
+        @Override
+        int[] sample(int catalogSize, int count, Random random) {
+            // cumulative weights of 1/rank, searched with a binary search per sample
+            double[] cdf = new double[catalogSize];
+            double sum = 0;
+            for (int rank = 0; rank < catalogSize; rank++) {
+                sum += 1.0 / (rank + 1);
+                cdf[rank] = sum;
+            }
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                int found = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                int rank = found >= 0 ? found : -found - 1;
+                keys[i] = Math.min(rank, catalogSize - 1);
+            }
+            return keys;
+        }
+    };
+
+    /**
+     * Draw a sequence of Item indexes
+     *
+     * @param catalogSize number of distinct Items
+     * @param count       length of sequence
+     * @param random      source of randomness; seed it per thread so runs are repeatable
+     * @return indexes in the range [0, catalogSize)
+     */
+    abstract int[] sample(int catalogSize, int count, Random random);
+}
@@ -0,0 +1,202 @@
+package net.suzio.store.benchmarks;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Receipt;
+import net.suzio.store.model.Register;
+import net.suzio.store.model.Shopper;
+import net.suzio.store.model.ShopperEngine;
+import net.suzio.store.model.Store;
+import net.suzio.store.model.StoreMetrics;
+import net.suzio.store.model.util.Histogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load on a whole Store: Shoppers arrive at a set rate, take a basket from stock, queue at Registers and
+ * check out, all on real threads through the real flow (startShopper, doShopping, startShopperCheckout, and checkout
+ * by Register worker threads or by the Store's own loop).
+ * <p>
+ * Unlike {@link StoreStockBenchmark} this is not a JMH benchmark: it is an open-loop simulation, so arrivals keep
+ * coming whether or not the Store keeps up, and it reports what a Store operator would want to see. It reports
+ * throughput, checkout latency percentiles, fill rates, and a stock conservation check: units stocked must equal
+ * units left on the shelves plus units on Receipts.
+ * <p>
+ * Usage: ShoppingLoadHarness [name=value ...], with names and defaults:
+ * <pre>
+ *   rate=2000         Shopper arrivals per second (exponentially spaced)
+ *   seconds=10        how long Shoppers keep arriving
+ *   registers=4       Registers in service
+ *   workers=true      Registers check out on their own threads; false to leave checkout to the Store loop
+ *   catalog=1024      distinct Items stocked
+ *   stock=1000        units stocked of each Item
+ *   basket=5          Items on each Shopper's list
+ *   units=2           units of each Item wanted
+ *   keys=HOT          Item choice: HOT (Zipf-skewed) or UNIFORM
+ *   seed=42           random seed, for repeatable runs
+ * </pre>
+ */
+public final class ShoppingLoadHarness {
+    // walked with a cursor, so baskets do not repeat in lock step
+    private static final int KEY_SEQUENCE_LENGTH = 1 << 20;
+
+    private final double rate;
+    private final long seconds;
+    private final int registerCount;
+    private final boolean workers;
+    private final int catalogSize;
+    private final int stockPerItem;
+    private final int basketSize;
+    private final int unitsPerItem;
+    private final KeyDistribution keys;
+    private final long seed;
+
+    private ShoppingLoadHarness(Map<String, String> settings) {
+        super();
+        rate = Double.parseDouble(settings.getOrDefault("rate", "2000"));
+        seconds = Long.parseLong(settings.getOrDefault("seconds", "10"));
+        registerCount = Integer.parseInt(settings.getOrDefault("registers", "4"));
+        workers = Boolean.parseBoolean(settings.getOrDefault("workers", "true"));
+        catalogSize = Integer.parseInt(settings.getOrDefault("catalog", "1024"));
+        stockPerItem = Integer.parseInt(settings.getOrDefault("stock", "1000"));
+        basketSize = Integer.parseInt(settings.getOrDefault("basket", "5"));
+        unitsPerItem = Integer.parseInt(settings.getOrDefault("units", "2"));
+        keys = KeyDistribution.valueOf(settings.getOrDefault("keys", "HOT"));
+        seed = Long.parseLong(settings.getOrDefault("seed", "42"));
+        if (rate <= 0 || seconds <= 0 || registerCount <= 0 || catalogSize <= 0 || basketSize <= 0) {
+            throw new IllegalArgumentException("rate, seconds, registers, catalog and basket must all be positive");
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> settings = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected name=value but got: " + arg);
+            }
+            settings.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new ShoppingLoadHarness(settings).run();
+    }
+
+    private void run() throws InterruptedException {
+        Store store = new Store();
+        String[] names = new String[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            names[i] = "Item-" + i;
+            store.addItem(new Item(names[i], 1.99, stockPerItem, "each"));
+        }
+        long stocked = (long) catalogSize * stockPerItem;
+
+        for (int i = 0; i < registerCount; i++) {
+            store.addRegister(new Register());
+        }
+        if (workers) {
+            store.startRegisters();
+        }
+        Thread storeLoop = new Thread(store::run, "store-loop");
+        storeLoop.start();
+        store.open();
+
+        Random random = new Random(seed);
+        int[] keySequence = keys.sample(catalogSize, KEY_SEQUENCE_LENGTH, random);
+        int cursor = 0;
+        ConcurrentLinkedQueue<Shopper> shoppers = new ConcurrentLinkedQueue<>();
+        long requested = 0;
+
+        System.out.printf("Arrivals at %.0f/s for %ds: %d Registers (%s), %d Items (%s), basket of %d x %d units%n",
+                          rate, seconds, registerCount, workers ? "worker threads" : "store loop", catalogSize, keys,
+                          basketSize, unitsPerItem);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long nextArrival = start;
+        try (ShopperEngine engine = new ShopperEngine()) {
+            while (nextArrival < end) {
+                long wait = nextArrival - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                List<Item> list = new ArrayList<>(basketSize);
+                for (int i = 0; i < basketSize; i++) {
+                    list.add(new Item(names[keySequence[cursor]], 1.99, unitsPerItem, "each"));
+                    cursor = (cursor + 1) & (KEY_SEQUENCE_LENGTH - 1);
+                    requested += unitsPerItem;
+                }
+                Shopper shopper = new Shopper(store, list);
+                shoppers.add(shopper);
+                engine.start(shopper);
+                // Poisson arrivals: exponentially distributed gaps averaging 1/rate
+                nextArrival += (long) (-Math.log(1.0 - random.nextDouble()) / rate * 1_000_000_000L);
+            }
+            engine.shutdown();
+            if (!engine.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Shoppers still shopping after a minute; results will be incomplete");
+            }
+        }
+        // closing checks out everyone still in line
+        store.shutdownStore();
+        storeLoop.join();
+        long elapsedNanos = System.nanoTime() - start;
+
+        report(store, shoppers, stocked, requested, elapsedNanos, names);
+    }
+
+    private void report(Store store, Iterable<Shopper> shoppers, long stocked, long requested, long elapsedNanos,
+                        String[] names) {
+        long arrived = 0;
+        long checkedOut = 0;
+        long sold = 0;
+        Histogram receiptLines = new Histogram();
+        for (Shopper shopper : shoppers) {
+            arrived++;
+            Receipt receipt = shopper.getReceipt();
+            if (receipt != null) {
+                checkedOut++;
+                receiptLines.record(receipt.getItems().size());
+                for (Item item : receipt.getItems()) {
+                    sold += item.getQuantity();
+                }
+            }
+        }
+        long shelved = 0;
+        for (String name : names) {
+            Item item = store.queryItem(name);
+            shelved += item == null ? 0 : item.getQuantity();
+        }
+
+        StoreMetrics metrics = store.getMetrics();
+        double elapsedSeconds = elapsedNanos / 1e9;
+        long takes = metrics.getTakeFills() + metrics.getTakePartialFills() + metrics.getTakeMisses();
+        System.out.printf("Shoppers arrived      %d (%.0f/s)%n", arrived, arrived / elapsedSeconds);
+        System.out.printf("Checked out           %d (%.0f/s), %d without a Receipt%n", checkedOut,
+                          checkedOut / elapsedSeconds, arrived - checkedOut);
+        System.out.printf("Checkout latency us   mean %.1f, p50 %d, p99 %d, max %d%n",
+                          metrics.getCheckoutLatencyMeanMicros(), metrics.getCheckoutLatencyP50Micros(),
+                          metrics.getCheckoutLatencyP99Micros(), metrics.getCheckoutLatencyMaxMicros());
+        System.out.printf("Register line depth   mean %.1f, p99 %d, max %d%n", metrics.getRegisterQueueDepthMean(),
+                          metrics.getRegisterQueueDepthP99(), metrics.getRegisterQueueDepthMax());
+        System.out.printf("Takes                 %d: %.1f%% filled, %.1f%% partial, %.1f%% missed%n", takes,
+                          percent(metrics.getTakeFills(), takes), percent(metrics.getTakePartialFills(), takes),
+                          percent(metrics.getTakeMisses(), takes));
+        System.out.printf("Units                 %d wanted, %d sold (%.1f%% fill rate), %.1f lines per Receipt%n",
+                          requested, sold, percent(sold, requested), receiptLines.getMean());
+        boolean conserved = stocked == shelved + sold;
+        System.out.printf("Stock conservation    %s: %d stocked = %d on shelves + %d sold%s%n",
+                          conserved ? "OK" : "FAILED", stocked, shelved, sold,
+                          conserved ? "" : " (off by " + (stocked - shelved - sold) + ")");
+        if (!conserved) {
+            System.exit(1);
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+}
@@ -0,0 +1,46 @@
+package net.suzio.store.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link StoreStockBenchmark} once per thread count, doubling from one thread up to a maximum, with the GC
+ * profiler attached so allocation rate is reported next to throughput and latency percentiles.
+ * <p>
+ * Usage: StockBenchmarks [maxThreads] [benchmark regex]. maxThreads defaults to the number of available processors.
+ * Each run writes jmh-result-t{threads}.json so before/after runs can be compared.
+ */
+public final class StockBenchmarks {
+
+    private StockBenchmarks() {
+        super();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String include = args.length > 1 ? args[1] : StoreStockBenchmark.class.getSimpleName();
+
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-t" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    // double each time, but always finish on exactly maxThreads
+    private static int nextThreadCount(int threads, int maxThreads) {
+        if (threads == maxThreads) {
+            return maxThreads + 1;
+        }
+        return Math.min(threads * 2, maxThreads);
+    }
+}
@@ -0,0 +1,119 @@
+package net.suzio.store.benchmarks;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Store;
+import net.suzio.store.model.repository.InMemoryItemRepository;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store stock operations under contention.
+ * <p>
+ * Parameters sweep catalog size and key distribution; thread count comes from the JMH command line (-t) or from
+ * {@link StockBenchmarks}, which runs the sweep from one thread up to N. {@link #takeHotItem} has every thread take
+ * the same Item, hot or kept cold, to show whether takes of one Item scale with threads. Every benchmark reports both
+ * throughput and sampled latency (for percentiles); run with the GC profiler (-prof gc) for allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreStockBenchmark {
+
+    // enough stock that no benchmark iteration can sell out, so every take is a full fill
+    private static final int STOCKED_QUANTITY = Integer.MAX_VALUE / 2;
+    // long enough that threads do not walk the same short cycle of keys in lock step
+    private static final int KEY_SEQUENCE_LENGTH = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class StockState {
+        @Param({"16", "1024", "65536"})
+        int catalogSize;
+
+        @Param({"UNIFORM", "HOT"})
+        KeyDistribution distribution;
+
+        Store store;
+        String[] names;
+        // prebuilt so addItem measures the Store, not Item construction in the benchmark
+        Item[] restockItems;
+
+        @Setup(Level.Iteration)
+        public void stock() {
+            store = new Store();
+            names = new String[catalogSize];
+            restockItems = new Item[catalogSize];
+            for (int i = 0; i < catalogSize; i++) {
+                names[i] = "Item-" + i;
+                store.addItem(new Item(names[i], 1.99, STOCKED_QUANTITY, "each"));
+                restockItems[i] = new Item(names[i], 1.99, 1, "each");
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HotItemState {
+        static final String NAME = "Hot-Item";
+
+        // true splits the Item over cells up front; false never lets it go hot, so every take queues for its lock
+        @Param({"true", "false"})
+        boolean hot;
+
+        Store store;
+
+        @Setup(Level.Iteration)
+        public void stock() {
+            InMemoryItemRepository repository = new InMemoryItemRepository();
+            if (!hot) {
+                repository.setHotThreshold(0);
+            }
+            store = new Store(repository);
+            store.addItem(new Item(NAME, 1.99, STOCKED_QUANTITY, "each"));
+            if (hot) {
+                repository.makeHot(NAME);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class KeyState {
+        int[] keys;
+        int cursor;
+
+        @Setup(Level.Trial)
+        public void sample(StockState stock, ThreadParams threadParams) {
+            keys = stock.distribution.sample(stock.catalogSize, KEY_SEQUENCE_LENGTH,
+                                             new Random(31L * threadParams.getThreadIndex() + 17));
+        }
+
+        int next() {
+            int key = keys[cursor];
+            cursor = (cursor + 1) & (KEY_SEQUENCE_LENGTH - 1);
+            return key;
+        }
+    }
+
+    @Benchmark
+    public Item takeItem(StockState stock, KeyState keys) {
+        return stock.store.takeItem(stock.names[keys.next()], 1);
+    }
+
+    @Benchmark
+    public Item addItem(StockState stock, KeyState keys) {
+        return stock.store.addItem(stock.restockItems[keys.next()]);
+    }
+
+    @Benchmark
+    public Item queryItem(StockState stock, KeyState keys) {
+        return stock.store.queryItem(stock.names[keys.next()]);
+    }
+
+    @Benchmark
+    public Item takeHotItem(HotItemState item) {
+        return item.store.takeItem(HotItemState.NAME, 1);
+    }
+}
@@ -50,9 +50,9 @@ public class FullShoppingProcessTests {
                       }
         );
 
-        // run main loop -- should checkout all Shoppers
-        store.run();
+        // run main loop once, then close -- should checkout all Shoppers
         store.shutdownStore();
+        store.run();
 
         for (int shopNum = 0; shopNum < shoppers.size(); shopNum++) {
             Shopper s = shoppers.get(shopNum);
@@ -117,9 +117,9 @@ public class FullShoppingProcessTests {
                           // We should shop and get to checkout step, then fail
                           shopper.run();
                       });
-        //Manually run the Store loop
-        store.run();
+        //Manually run the Store loop for a single pass
         store.shutdownStore();
+        store.run();
 
         //Now:
         //
@@ -1,43 +1,108 @@
 package net.suzio.store.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 /**
  * cart for use by a Shopper. Exists to separate concerns
+ * <p>
+ * Holds one line per Item name, folding repeats together as {@link Item#merge} does, so adding and removing are
+ * constant time however full the Cart gets. A line whose quantity drops to zero or below leaves the Cart. Lines sit in
+ * a plain list indexed by name, which {@link #drain()} hands over whole at checkout instead of copying.
  * Created by Michael on 11/12/2016.
  */
 public class Cart {
-    // No pressing need to size this explicitly just yet; default constructor is OK
-    private final List<Item> items = new ArrayList<>();
+    private List<Item> lines = new ArrayList<>();
+    // Item name to its position in lines
+    private final HashMap<String, Integer> positions = new HashMap<>();
 
+    /**
+     * Add an Item, folding it into any line for the same name
+     *
+     * @param item Item to add
+     */
     public void addItem(Item item) {
-        items.add(item);
+        Integer position = positions.get(item.getName());
+        if (position == null) {
+            if (item.getQuantity() > 0) {
+                positions.put(item.getName(), lines.size());
+                lines.add(item);
+            }
+            return;
+        }
+        Item merged = Item.merge(lines.get(position), item);
+        if (merged.getQuantity() > 0) {
+            lines.set(position, merged);
+        } else {
+            removeLine(position);
+        }
     }
 
     /**
      * Get the items added to this Cart
      *
-     * @return A copy of the Cart item list.
+     * @return A copy of the Cart item list, one Item per name
      */
     public List<Item> getItems() {
-        return new ArrayList<>(items);
+        return new ArrayList<>(lines);
+    }
+
+    /**
+     * Take every line out of the Cart at once, leaving it empty. The list returned is the one the Cart was using, so
+     * nothing is copied; the Cart carries on with a new one.
+     *
+     * @return the Cart's lines, one Item per name, each with a positive quantity
+     */
+    public List<Item> drain() {
+        List<Item> drained = lines;
+        lines = new ArrayList<>();
+        positions.clear();
+        return drained;
     }
 
     public void clear() {
-        items.clear();
+        lines.clear();
+        positions.clear();
     }
 
+    /**
+     * Take an Item's quantity back out of the Cart. The line for its name leaves the Cart once nothing is left on it.
+     *
+     * @param item Item to remove
+     */
     public void removeItem(Item item) {
-        // not efficient, but not called often enough to make us revise our data structure
-        items.remove(item);
+        Integer position = positions.get(item.getName());
+        if (position == null) {
+            return;
+        }
+        Item line = lines.get(position);
+        int left = line.getQuantity() - item.getQuantity();
+        if (left > 0) {
+            lines.set(position, new Item(line.getProduct(), left));
+        } else {
+            removeLine(position);
+        }
+    }
+
+    // move the last line into the gap, so nothing after it shifts
+    private void removeLine(int position) {
+        Item removed = lines.get(position);
+        int last = lines.size() - 1;
+        if (position != last) {
+            Item moved = lines.get(last);
+            lines.set(position, moved);
+            positions.put(moved.getName(), position);
+        }
+        lines.remove(last);
+        positions.remove(removed.getName());
     }
 
     @Override
     public String toString() {
         //noinspection StringBufferReplaceableByString
         @SuppressWarnings("StringBufferReplaceableByString") StringBuilder sb = new StringBuilder("Cart{");
-        sb.append("items=").append(items);
+        sb.append("items=").append(lines);
         sb.append('}');
         return sb.toString();
     }
@@ -49,11 +114,26 @@ public class Cart {
 
         Cart cart = (Cart) o;
 
-        return items.equals(cart.items);
+        // same lines, whatever order removals have left them in
+        if (lines.size() != cart.lines.size()) {
+            return false;
+        }
+        for (Item line : lines) {
+            Integer position = cart.positions.get(line.getName());
+            if (position == null || !line.equals(cart.lines.get(position))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return items.hashCode();
+        // order-independent, to match equals
+        int hash = 0;
+        for (Item line : lines) {
+            hash += line.hashCode();
+        }
+        return hash;
     }
 }
@@ -4,21 +4,17 @@ package net.suzio.store.model;
  * Models an Item in a store inventory. Item objects may only be created via the public constructor, and are immutable
  * by design to maintain data integrity.  Use cases where a state change is required should be done through creation of
  * a new Item.
+ * <p>
+ * An Item is just a quantity of a {@link Product}. Name, price and units live on the Product, which is shared through
+ * the {@link ProductCatalog} by every Item of the same thing, so an Item costs one reference and an int however many
+ * of them are alive, and comparing two Items compares a reference and an int.
  *
  * @author Michael Suzio
  */
 public class Item {
-    private String name;
-    private double price;
-    private int quantity;
-    private String units;
-
-
-    // for internal use
-    private Item() {
-        super();
-
-    }
+    // shared with every other Item of the same name, price and units
+    private final Product product;
+    private final int quantity;
 
     /**
      * Constructor. Once created, instances are immutable. Item data is not validated; data should be sanity checked in
@@ -30,17 +26,38 @@ public class Item {
      * @param units    Description of unit measure; purely informative
      */
     public Item(String name, double price, int quantity, String units) {
-        super();
-        this.name = name;
+        this(name, Money.of(price), quantity, units);
+    }
+
+    /**
+     * Constructor. Once created, instances are immutable. Item data is not validated; data should be sanity checked in
+     * proper contexts.
+     *
+     * @param name     Name of item
+     * @param price    Exact price per unit of item
+     * @param quantity number of units of the Item in question.
+     * @param units    Description of unit measure; purely informative
+     */
+    public Item(String name, Money price, int quantity, String units) {
         // note that zero is a legitimate price (freebies!)
-        this.price = price;
+        this(ProductCatalog.intern(name, price, units), quantity);
+    }
+
+    /**
+     * Constructor for a quantity of a Product already in hand; nothing is looked up.
+     *
+     * @param product  what the Item is
+     * @param quantity number of units of the Item in question.
+     */
+    public Item(Product product, int quantity) {
+        super();
+        this.product = product;
         this.quantity = quantity;
-        this.units = units;
     }
 
     // Currently no setters; it is assumed we would prefer nothing in our application mutate an Item directly
     public String getUnits() {
-        return units;
+        return product.getUnits();
     }
 
     public int getQuantity() {
@@ -48,11 +65,28 @@ public class Item {
     }
 
     public String getName() {
-        return name;
+        return product.getName();
     }
 
+    /**
+     * @return price per unit in dollars. Convenient for display; use {@link #getUnitPrice()} for arithmetic
+     */
     public double getPrice() {
-        return price;
+        return product.getPrice().toDouble();
+    }
+
+    /**
+     * @return exact price per unit
+     */
+    public Money getUnitPrice() {
+        return product.getPrice();
+    }
+
+    /**
+     * @return the shared Product this Item is a quantity of
+     */
+    public Product getProduct() {
+        return product;
     }
 
     /**
@@ -70,17 +104,12 @@ public class Item {
             return into;
         }
 
-        Item item = new Item();
         if (!(into.getName().equals(from.getName()))) {
             return into;
-        } else {
-            // For now, negative results are accepted and use cases judge if this makes sense
-            item.quantity = into.quantity + from.quantity;
-            item.name = from.name;
-            item.price = from.price;
-            item.units = from.units;
         }
-        return item;
+        // For now, negative results are accepted and use cases judge if this makes sense.
+        // from's Product carries the name, price and units that win
+        return new Item(from.product, into.quantity + from.quantity);
     }
 
 
@@ -91,25 +120,13 @@ public class Item {
 
         Item item = (Item) o;
 
-        //IDEA SUGGESTED THIS TRICKY FORM *AFTER* AUTO-GENERATING A MORE VERBOSE FORM
-        //Might be a bad inspection to leave on or perhaps it needs tuning
-        return (Double.compare(item.price, price) == 0)
-                && (quantity == item.quantity)
-                && name.equals(item.name)
-                && units.equals(item.units);
-
+        // Products are interned, so the same name, price and units is the same Product
+        return product == item.product && quantity == item.quantity;
     }
 
     @Override
     public int hashCode() {
-        int result;
-        long temp;
-        result = name.hashCode();
-        temp = Double.doubleToLongBits(price);
-        result = 31 * result + (int) (temp ^ (temp >>> 32));
-        result = 31 * result + quantity;
-        result = 31 * result + units.hashCode();
-        return result;
+        return 31 * product.getId() + quantity;
     }
 
     // I consider this spurious at best, and the concatenation version will flag other inspectors
@@ -118,10 +135,10 @@ public class Item {
     public String toString() {
 
         StringBuilder sb = new StringBuilder("Item{");
-        sb.append("name='").append(name).append('\'');
-        sb.append(", price=").append(price);
+        sb.append("name='").append(getName()).append('\'');
+        sb.append(", price=").append(getUnitPrice());
         sb.append(", quantity=").append(quantity);
-        sb.append(", units='").append(units).append('\'');
+        sb.append(", units='").append(getUnits()).append('\'');
         sb.append('}');
         return sb.toString();
     }
@@ -0,0 +1,132 @@
+package net.suzio.store.model;
+
+/**
+ * An exact amount of money, held as a whole number of cents. Immutable.
+ * <p>
+ * Sums and products are done in long arithmetic, so totals never pick up the rounding errors a double accumulates.
+ * Formatting is hand-rolled into a caller's StringBuilder, so it needs no Formatter and no intermediate Strings.
+ */
+public final class Money implements Comparable<Money> {
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    /**
+     * @param cents whole number of cents
+     * @return Money for that amount
+     */
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * @param amount amount in dollars; rounded to the nearest cent
+     * @return Money for that amount
+     */
+    public static Money of(double amount) {
+        return ofCents(Math.round(amount * 100));
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    /**
+     * @return this amount in dollars. For display and legacy callers only; do arithmetic on cents
+     */
+    public double toDouble() {
+        return cents / 100.0;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(cents + other.cents);
+    }
+
+    public Money times(int quantity) {
+        return ofCents(cents * quantity);
+    }
+
+    /**
+     * Append an amount in the same layout as String.format("$%(,.2f"): a dollar sign, comma-grouped dollars, two
+     * digits of cents, and parentheses around negative amounts.
+     *
+     * @param cents amount to append
+     * @param sb    where to append it
+     * @return sb, for chaining
+     */
+    public static StringBuilder appendTo(long cents, StringBuilder sb) {
+        sb.append('$');
+        boolean negative = cents < 0;
+        // Long.MIN_VALUE has no positive counterpart, so work on the negative side
+        long negated = negative ? cents : -cents;
+        if (negative) {
+            sb.append('(');
+        }
+        appendGrouped(-(negated / 100), sb);
+        sb.append('.');
+        int remainder = (int) -(negated % 100);
+        if (remainder < 10) {
+            sb.append('0');
+        }
+        sb.append(remainder);
+        if (negative) {
+            sb.append(')');
+        }
+        return sb;
+    }
+
+    /**
+     * @param cents amount to format
+     * @return amount formatted as by {@link #appendTo}
+     */
+    public static String format(long cents) {
+        return appendTo(cents, new StringBuilder(16)).toString();
+    }
+
+    // dollars >= 0, or the magnitude of Long.MIN_VALUE / 100, which still fits
+    private static void appendGrouped(long dollars, StringBuilder sb) {
+        if (dollars < 1000) {
+            sb.append(dollars);
+            return;
+        }
+        appendGrouped(dollars / 1000, sb);
+        sb.append(',');
+        int group = (int) (dollars % 1000);
+        if (group < 100) {
+            sb.append('0');
+        }
+        if (group < 10) {
+            sb.append('0');
+        }
+        sb.append(group);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Money money = (Money) o;
+
+        return cents == money.cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (cents ^ (cents >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return format(cents);
+    }
+}
@@ -0,0 +1,61 @@
+package net.suzio.store.model;
+
+/**
+ * What an Item is, apart from how many of it: name, price and units. Immutable.
+ * <p>
+ * Products are only made by {@link ProductCatalog}, which hands out exactly one instance for each distinct name, price
+ * and units, so every Item of the same thing shares one Product and two Products are the same thing only if they are
+ * the same object.
+ */
+public final class Product {
+    private final int id;
+    private final String name;
+    private final Money price;
+    private final String units;
+
+    Product(int id, String name, Money price, String units) {
+        super();
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.units = units;
+    }
+
+    /**
+     * @return catalog id, never given to any other Product; one collected and interned again gets a new id
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Money getPrice() {
+        return price;
+    }
+
+    public String getUnits() {
+        return units;
+    }
+
+    // equals is identity, which the catalog makes the same as equal name, price and units
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @SuppressWarnings("StringBufferReplaceableByString")
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Product{");
+        sb.append("id=").append(id);
+        sb.append(", name='").append(name).append('\'');
+        sb.append(", price=").append(price);
+        sb.append(", units='").append(units).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
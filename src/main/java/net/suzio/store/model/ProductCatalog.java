@@ -0,0 +1,137 @@
+package net.suzio.store.model;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one shared catalog of Products.
+ * <p>
+ * Holds each distinct name, price and units once, however many Items refer to it. Looking up a Product already in the
+ * catalog takes one hash lookup and allocates nothing. A name usually has a single Product; repricing adds another
+ * next to it, and the old one stays for as long as any Item still carries that price.
+ * <p>
+ * The catalog only holds its Products weakly, so it never keeps one alive by itself: once no Item refers to a
+ * Product, the garbage collector may take it, and the next lookup that misses sweeps it out of the catalog. A Product
+ * interned again after that is a new Product, which is safe since nothing is left to compare it with the old one.
+ */
+public final class ProductCatalog {
+    // a name's Products, replaced whole when one is added or swept out; null names are filed under ""
+    private static final ConcurrentHashMap<String, Variant[]> BY_NAME = new ConcurrentHashMap<>();
+    // Variants whose Product has been collected, waiting to be swept out of BY_NAME
+    private static final ReferenceQueue<Product> COLLECTED = new ReferenceQueue<>();
+    private static final Variant[] NONE = new Variant[0];
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger(0);
+
+    private ProductCatalog() {
+        super();
+    }
+
+    /**
+     * @param name  Product name
+     * @param price price per unit
+     * @param units description of unit measure
+     * @return the catalog's one Product with exactly this name, price and units, added if new
+     */
+    public static Product intern(String name, Money price, String units) {
+        String key = name == null ? "" : name;
+        Product found = find(BY_NAME.get(key), name, price, units);
+        if (found != null) {
+            return found;
+        }
+        sweep();
+        // held strongly here, since the catalog alone would not keep it from being collected before we return it
+        Product[] interned = new Product[1];
+        // compute runs once per key at a time, so two threads cannot add the same Product twice
+        BY_NAME.compute(key, (k, existing) -> {
+            interned[0] = find(existing, name, price, units);
+            if (interned[0] != null) {
+                return existing;
+            }
+            interned[0] = new Product(ID_COUNTER.getAndIncrement(), name, price, units);
+            Variant[] live = live(existing);
+            Variant[] grown = Arrays.copyOf(live, live.length + 1);
+            grown[live.length] = new Variant(key, interned[0]);
+            return grown;
+        });
+        return interned[0];
+    }
+
+    /**
+     * @return number of distinct Products in the catalog that have not been collected
+     */
+    public static int size() {
+        int size = 0;
+        for (Variant[] variants : BY_NAME.values()) {
+            for (Variant variant : variants) {
+                if (variant.get() != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * For tests, which have no other way to see that collected Products are swept out
+     *
+     * @return entries held for a name, counting any whose Product has been collected but not yet swept out
+     */
+    static int entryCount(String name) {
+        Variant[] variants = BY_NAME.get(name == null ? "" : name);
+        return variants == null ? 0 : variants.length;
+    }
+
+    // drop every Variant the collector has cleared, and every name left with none
+    private static void sweep() {
+        Reference<? extends Product> collected;
+        while ((collected = COLLECTED.poll()) != null) {
+            BY_NAME.computeIfPresent(((Variant) collected).key, (k, existing) -> {
+                Variant[] live = live(existing);
+                return live.length == 0 ? null : live;
+            });
+        }
+    }
+
+    private static Variant[] live(Variant[] variants) {
+        if (variants == null) {
+            return NONE;
+        }
+        // one pass: the collector may clear more Variants at any moment, so a count taken first could be stale
+        Variant[] kept = new Variant[variants.length];
+        int live = 0;
+        for (Variant variant : variants) {
+            if (variant.get() != null) {
+                kept[live++] = variant;
+            }
+        }
+        return live == variants.length ? variants : Arrays.copyOf(kept, live);
+    }
+
+    private static Product find(Variant[] variants, String name, Money price, String units) {
+        if (variants != null) {
+            for (Variant variant : variants) {
+                Product product = variant.get();
+                if (product != null && product.getPrice().equals(price) && Objects.equals(product.getUnits(), units)
+                        && Objects.equals(product.getName(), name)) {
+                    return product;
+                }
+            }
+        }
+        return null;
+    }
+
+    // A weakly held Product, remembering the key it is filed under so it can be swept out once collected
+    private static final class Variant extends WeakReference<Product> {
+        private final String key;
+
+        private Variant(String key, Product product) {
+            super(product, COLLECTED);
+            this.key = key;
+        }
+    }
+}
@@ -1,41 +1,145 @@
 package net.suzio.store.model;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Receipt associated with a Shoppers shopping run
+ * <p>
+ * Immutable: the Items are fixed when the Receipt is built. Lines are sorted and formatted once, the first time
+ * anything asks for them, and every later call is served from that.
  */
 public class Receipt {
-    private final List<Item> orderItems = new ArrayList<>();
+    // most expensive first, then by name
+    private static final Comparator<Item> LINE_ORDER = (item1, item2) -> {
+        int priceComp = item2.getUnitPrice().compareTo(item1.getUnitPrice());
+        return priceComp == 0 ? item1.getName().compareTo(item2.getName()) : priceComp;
+    };
 
-    public void addItems(List<Item> items) {
-        orderItems.addAll(items);
+    private final List<Item> orderItems;
+    // Register that printed this Receipt, or -1 if none did
+    private final int registerId;
+    // epoch millis of checkout
+    private final long timestamp;
+    // in exact cents
+    private final long totalCents;
+    // null until first asked for
+    private volatile Rendering rendering;
+
+    public Receipt() {
+        this(Collections.emptyList());
     }
 
-    public String getFormattedTotal() {
-        double total = 0;
-        for (Item item : orderItems) {
-            total += item.getPrice();
+    /**
+     * @param items Items bought; copied, so later changes to the list do not show
+     */
+    public Receipt(List<Item> items) {
+        this(items, -1, System.currentTimeMillis());
+    }
+
+    /**
+     * @param items      Items bought; copied, so later changes to the list do not show
+     * @param registerId id of the Register checking out
+     * @param timestamp  time of checkout, in epoch milliseconds
+     */
+    public Receipt(List<Item> items, int registerId, long timestamp) {
+        this(registerId, timestamp, new ArrayList<>(items));
+    }
+
+    // keeps items as its own list; reached through the public constructor's copy or through adopting
+    private Receipt(int registerId, long timestamp, List<Item> items) {
+        super();
+        this.orderItems = items;
+        this.registerId = registerId;
+        this.timestamp = timestamp;
+        this.totalCents = total(items);
+    }
+
+    /**
+     * Build a Receipt around a list the caller hands over, such as one from {@link Cart#drain()}, without copying it.
+     * The caller must not touch the list afterwards.
+     *
+     * @param items      Items bought
+     * @param registerId id of the Register checking out
+     * @param timestamp  time of checkout, in epoch milliseconds
+     * @return Receipt using items as its own list
+     */
+    static Receipt adopting(List<Item> items, int registerId, long timestamp) {
+        return new Receipt(registerId, timestamp, items);
+    }
+
+    private static long total(List<Item> items) {
+        long cents = 0;
+        for (Item item : items) {
+            cents += item.getUnitPrice().getCents() * item.getQuantity();
         }
+        return cents;
+    }
+
+    /**
+     * @return Items on this Receipt, in the order they were given. Unmodifiable
+     */
+    public List<Item> getItems() {
+        return Collections.unmodifiableList(orderItems);
+    }
+
+    /**
+     * @return id of the Register that printed this Receipt, or -1 if it was not printed by one
+     */
+    public int getRegisterId() {
+        return registerId;
+    }
+
+    /**
+     * @return time of checkout, in epoch milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return exact total of every line: unit price times quantity
+     */
+    public Money getTotal() {
+        return Money.ofCents(totalCents);
+    }
 
-        return String.format("$%(,.2f", total);
+    public String getFormattedTotal() {
+        return rendered().total;
     }
 
+    /**
+     * @return one line per Item, most expensive first. Unmodifiable, and the same List on every call
+     */
     public List<String> getItemizedLines() {
-        // sort sand collect in a stream (functionally without side-effects)
-        return orderItems.stream().sorted((item1, item2) -> {
-            double priceComp = item2.getPrice() - item1.getPrice();
-            return priceComp == 0 ? item1.getName().compareTo(item2.getName()) : priceComp < 0 ? -1 : 1;
-        }).map(this::formatItem).collect(Collectors.toList());
+        return rendered().lines;
     }
 
-    private String formatItem(Item item) {
-        // Fixed format currently
-        String format = "%s %d @$%(,.2f/%s == $%(,.2f";
-        double sum = item.getQuantity() * item.getPrice();
-        return String.format(format, item.getName(), item.getQuantity(), item.getPrice(), item.getUnits(), sum);
+    /**
+     * Write the whole receipt as text: each itemized line, then a total line, each followed by a newline
+     *
+     * @param out where to write
+     * @param <A> type of out
+     * @return out, for chaining
+     * @throws IOException if out does
+     */
+    public <A extends Appendable> A writeTo(A out) throws IOException {
+        out.append(rendered().text);
+        return out;
+    }
+
+    private Rendering rendered() {
+        Rendering current = rendering;
+        if (current == null) {
+            // two threads racing here build equal results, so either may win
+            current = new Rendering(orderItems, totalCents);
+            rendering = current;
+        }
+        return current;
     }
 
     @Override
@@ -48,4 +152,42 @@ public class Receipt {
         sb.append('}');
         return sb.toString();
     }
+
+    // Everything printable about a Receipt, formatted in one pass with no Formatter
+    private static final class Rendering {
+        private final List<String> lines;
+        private final String total;
+        private final String text;
+
+        private Rendering(List<Item> items, long totalCents) {
+            Item[] sorted = items.toArray(new Item[0]);
+            Arrays.sort(sorted, LINE_ORDER);
+
+            // one builder reused for every line, then once more for the full text
+            StringBuilder sb = new StringBuilder(64);
+            List<String> formatted = new ArrayList<>(sorted.length);
+            for (Item item : sorted) {
+                sb.setLength(0);
+                formatted.add(appendLine(item, sb).toString());
+            }
+            lines = Collections.unmodifiableList(formatted);
+
+            sb.setLength(0);
+            total = Money.appendTo(totalCents, sb).toString();
+
+            sb.setLength(0);
+            for (String line : formatted) {
+                sb.append(line).append('\n');
+            }
+            text = sb.append("Total ").append(total).append('\n').toString();
+        }
+
+        // same layout String.format("%s %d @$%(,.2f/%s == $%(,.2f") used to give
+        private static StringBuilder appendLine(Item item, StringBuilder sb) {
+            long unitCents = item.getUnitPrice().getCents();
+            sb.append(item.getName()).append(' ').append(item.getQuantity()).append(" @");
+            Money.appendTo(unitCents, sb).append('/').append(item.getUnits()).append(" == ");
+            return Money.appendTo(unitCents * item.getQuantity(), sb);
+        }
+    }
 }
@@ -1,9 +1,10 @@
 package net.suzio.store.model;
 
-import java.util.List;
+import net.suzio.store.model.repository.ReceiptArchive;
+
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Register that services Shoppers in checkout process
@@ -15,13 +16,28 @@ public class Register {
     private final LinkedBlockingQueue<Shopper> waitingShoppers;
     private static final AtomicInteger ID_COUNTER = new AtomicInteger(0);
     private final Integer id;
+    // every Receipt we print is archived here, if set
+    private final ReceiptArchive archive;
+    // Receipts the archive refused
+    private final LongAdder unarchived = new LongAdder();
+    // metrics of the Store we serve, while we are in service
+    private volatile StoreMetrics metrics;
 
     public Register() {
         this(0);
     }
 
     public Register(int lineLimit) {
+        this(lineLimit, null);
+    }
+
+    /**
+     * @param lineLimit limit on Shoppers waiting in line; zero or less for no limit
+     * @param archive   archive to record every Receipt in; may be null. Shared freely between Registers
+     */
+    public Register(int lineLimit, ReceiptArchive archive) {
         super();
+        this.archive = archive;
         if (lineLimit > 0) {
             waitingShoppers = new LinkedBlockingQueue<>(lineLimit);
         } else {
@@ -34,19 +50,57 @@ public class Register {
         // No waiting timeout right now; adjust as desired behavior becomes clear
         Shopper shopper = waitingShoppers.poll();
         if (shopper != null) {
-            Receipt receipt = new Receipt();
-            Cart cart = shopper.getCart();
-            if (cart != null) {
-                List<Item> validItems = cart.getItems().stream().filter(i -> i.getQuantity() > 0).collect(Collectors.toList());
-                // we processed all the cart items, zero it out
-                cart.clear();
-                receipt.addItems(validItems);
-                shopper.setReceipt(receipt);
-            }
+            checkout(shopper);
         }
         return shopper;
     }
 
+    /**
+     * Wait for the next Shopper in line and check them out. This is what a {@link RegisterWorkers} thread loops on.
+     *
+     * @return the Shopper checked out
+     * @throws InterruptedException if interrupted while the line is empty; no Shopper is taken from the line
+     */
+    Shopper awaitCheckout() throws InterruptedException {
+        Shopper shopper = waitingShoppers.take();
+        checkout(shopper);
+        return shopper;
+    }
+
+    private void checkout(Shopper shopper) {
+        Cart cart = shopper.getCart();
+        if (cart != null) {
+            // the Cart only holds lines with something on them, and empties itself handing them over;
+            // the Receipt keeps the very same list, so checkout copies nothing
+            Receipt receipt = Receipt.adopting(cart.drain(), id, System.currentTimeMillis());
+            if (archive != null) {
+                try {
+                    archive.append(receipt);
+                } catch (RuntimeException e) {
+                    // closed, failed or full: the sale stands all the same, and the Shopper still gets a Receipt.
+                    // Whoever owns the archive hears why from its flush or close; we just count what it missed
+                    unarchived.increment();
+                    StoreMetrics current = metrics;
+                    if (current != null) {
+                        current.recordUnarchivedReceipt();
+                    }
+                }
+            }
+            shopper.setReceipt(receipt);
+        }
+        StoreMetrics current = metrics;
+        if (current != null && shopper.getLineJoinedNanos() != 0) {
+            current.recordCheckout(System.nanoTime() - shopper.getLineJoinedNanos());
+        }
+    }
+
+    /**
+     * @return Receipts printed here that the archive refused, because it was closed or had failed
+     */
+    public long getUnarchivedReceipts() {
+        return unarchived.sum();
+    }
+
     void checkoutAll() {
         Shopper checkedOut;
         do {
@@ -56,18 +110,39 @@ public class Register {
 
 
     public boolean addShopper(Shopper shopper) {
-        return waitingShoppers.offer(shopper);
+        StoreMetrics current = metrics;
+        if (current == null) {
+            return waitingShoppers.offer(shopper);
+        }
+        // stamped before the offer, since our thread may check the Shopper out the moment it is in line
+        shopper.setLineJoinedNanos(System.nanoTime());
+        if (waitingShoppers.offer(shopper)) {
+            current.recordRegisterLineJoin(waitingShoppers.size());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param metrics metrics to record checkouts in, or null to stop recording
+     */
+    void setMetrics(StoreMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
      * @return number of Shoppers waiting. In a multithreaded context, this may change after querying, so this is just
      * informational and #addShopper may still refuse requests
      */
-    int getWaitingCount() {
+    public int getWaitingCount() {
         return waitingShoppers.size();
     }
 
-    int getRemainingWaitLimit() {
+    /**
+     * @return how many more Shoppers the line can take before #addShopper refuses them. As informational as
+     * #getWaitingCount
+     */
+    public int getRemainingWaitLimit() {
         return waitingShoppers.remainingCapacity();
     }
 
@@ -0,0 +1,73 @@
+package net.suzio.store.model;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks which Register's line a Shopper joins at checkout.
+ * <p>
+ * Called concurrently by every Shopper checking out, with the Store's current Registers in an array that must not be
+ * modified. Line lengths read here may change before the Shopper is added, so an answer is only a best guess; the
+ * Store tries the other Registers if the chosen line turns out to be full.
+ */
+@FunctionalInterface
+public interface RegisterAssignment {
+
+    /**
+     * @param registers Registers in service; never empty
+     * @param shopper   Shopper checking out
+     * @return Register whose line the Shopper should join
+     */
+    Register assign(Register[] registers, Shopper shopper);
+
+    /**
+     * @return assignment to the Register with the fewest Shoppers waiting, skipping full lines. Reads every line, so
+     * best for a modest number of Registers
+     */
+    static RegisterAssignment shortestQueue() {
+        return (registers, shopper) -> {
+            Register shortest = registers[0];
+            int shortestCount = Integer.MAX_VALUE;
+            for (Register register : registers) {
+                if (register.getRemainingWaitLimit() == 0) {
+                    continue;
+                }
+                int count = register.getWaitingCount();
+                if (count < shortestCount) {
+                    shortest = register;
+                    shortestCount = count;
+                }
+            }
+            return shortest;
+        };
+    }
+
+    /**
+     * @return assignment to the shorter of two Registers picked at random. Reads only two lines however many Registers
+     * there are, and keeps lines nearly as even as {@link #shortestQueue()}
+     */
+    static RegisterAssignment powerOfTwoChoices() {
+        return (registers, shopper) -> {
+            int count = registers.length;
+            if (count == 1) {
+                return registers[0];
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(count);
+            // pick from the others, so the two choices always differ
+            int second = (first + 1 + random.nextInt(count - 1)) % count;
+            Register a = registers[first];
+            Register b = registers[second];
+            return b.getWaitingCount() < a.getWaitingCount() ? b : a;
+        };
+    }
+
+    /**
+     * @return assignment to each Register in turn, ignoring how long the lines are
+     */
+    static RegisterAssignment roundRobin() {
+        AtomicInteger next = new AtomicInteger();
+        // floorMod keeps the index in range after the counter wraps negative
+        return (registers, shopper) -> registers[Math.floorMod(next.getAndIncrement(), registers.length)];
+    }
+}
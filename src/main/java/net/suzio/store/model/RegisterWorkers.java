@@ -0,0 +1,82 @@
+package net.suzio.store.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Threads that keep Registers checking out.
+ * <p>
+ * Each Register started here gets its own thread, which blocks on the Register's line and checks out every Shopper as
+ * soon as they join it. Checkout throughput therefore grows with the number of Registers, up to the number of cores.
+ * Stopping a worker interrupts it, at any point. The interrupt can only end a wait on an empty line: checkout itself
+ * does nothing that an interrupt stops (a {@link net.suzio.store.model.repository.ReceiptArchive} writes on its own
+ * thread), so a Shopper already taken from the line is always checked out in full. A checkout that fails anyway is
+ * reported to the thread's uncaught exception handler, and the worker carries on with the next Shopper rather than
+ * leave the line with nobody serving it.
+ */
+final class RegisterWorkers {
+    // keyed by Register id
+    private final ConcurrentHashMap<Integer, Thread> workers = new ConcurrentHashMap<>();
+
+    /**
+     * Start a worker for a Register. Does nothing if the Register already has one.
+     *
+     * @param register Register to keep checking out
+     */
+    void start(Register register) {
+        workers.computeIfAbsent(register.getId(), id -> {
+            Thread worker = new Thread(() -> work(register), "register-" + id);
+            // a forgotten Register must not keep the JVM alive
+            worker.setDaemon(true);
+            worker.start();
+            return worker;
+        });
+    }
+
+    /**
+     * Stop a Register's worker and wait for it to finish. Shoppers still in line stay there for the caller to handle.
+     *
+     * @param register Register whose worker should stop
+     * @return true if the Register had a worker
+     */
+    boolean stop(Register register) {
+        Thread worker = workers.remove(register.getId());
+        if (worker == null) {
+            return false;
+        }
+        worker.interrupt();
+        joinUninterruptibly(worker);
+        return true;
+    }
+
+    private static void work(Register register) {
+        Thread self = Thread.currentThread();
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                try {
+                    register.awaitCheckout();
+                } catch (RuntimeException e) {
+                    self.getUncaughtExceptionHandler().uncaughtException(self, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // told to stop
+        }
+    }
+
+    private static void joinUninterruptibly(Thread worker) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                worker.join();
+                break;
+            } catch (InterruptedException e) {
+                // the worker is already stopping; finish waiting for it, then pass the interrupt on
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
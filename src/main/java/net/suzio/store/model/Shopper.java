@@ -24,16 +24,23 @@ public class Shopper implements Runnable {
 
     private final Map<String, Item> shoppingMap = new HashMap<>();
     private final Cart cart = new Cart();
-    private Receipt receipt;
-
-    // CONCURRENCY BARRIER -- don't need CyclicBarrier reset functionality
-    // wait/notify might suffice, since no matter what we need another thread to signal us
-    // Not sure if there's performance implications of this -- would be a good StackOverflow question?
+    // set by whichever Register thread checks us out
+    private volatile Receipt receipt;
+    // System.nanoTime() when a Register with metrics took us into line; published to its thread by the line itself
+    private long lineJoinedNanos;
+    // our slot in the Store's ShopperRegistry while we are shopping there, or -1; kept by the registry
+    volatile int registrySlot = -1;
+
+    // CONCURRENCY BARRIER -- don't need CyclicBarrier reset functionality.
+    // Opened once by the Store in allowShop; a Shopper waiting at a closed Store blocks here until the Store opens.
+    // Blocking a virtual thread on a latch parks it without holding a carrier thread, so this stays cheap at scale
     final CountDownLatch shoppingBarrier = new CountDownLatch(1);
 
     // We want to be explicit in our logic
     @SuppressWarnings("RedundantFieldInitialization")
     private volatile boolean canShop = false;
+    // set by the Store, from another thread, possibly before we learn whether we may shop at all
+    private volatile boolean stopped;
 
 
     // Accept a List in our constructors simply because that is more direct to our intent and easier to construct inside our tests;
@@ -86,16 +93,12 @@ public class Shopper implements Runnable {
             // checkout; checkout step returns (relatively) immediately,
             // and either we were queued up to checkout  or perhaps we had to return some Items
             if (!checkout()) {
-                // checkout failed.
-                // Adjust our list and Cart accordingly
-                List<Item> cartItems = cart.getItems();
-                cartItems.forEach(cartReturn ->
-                                  {
-                                      cart.removeItem(cartReturn);
-                                      Item listItem = shoppingMap.get(cartReturn.getName());
-                                      Item revisedItem = Item.merge(listItem, cartReturn);
-                                      shoppingMap.put(cartReturn.getName(), revisedItem);
-                                  });
+                // checkout failed, and the Store has taken the Cart's contents back into stock.
+                // Empty the Cart in one step and put what it held back on our list
+                for (Item cartReturn : cart.drain()) {
+                    Item listItem = shoppingMap.get(cartReturn.getName());
+                    shoppingMap.put(cartReturn.getName(), Item.merge(listItem, cartReturn));
+                }
             }
         }
     }
@@ -106,47 +109,46 @@ public class Shopper implements Runnable {
 
 
     public void allowShop() {
-        // flip barrier blocking shopping -- currently nothing waits on that, but this is the logic
+        // flip barrier blocking shopping
         shoppingBarrier.countDown();
     }
 
     public void stopShopping() {
+        stopped = true;
         canShop = false;
     }
 
 
     public void doShopping() {
         canShop = store.startShopper(this);
-        // We will do this for each Item in our shopping List:
-        // -- try to take the Item from the Store
-        // -- merge results with our desired quantity
-        // -- put merged result back into our shopping list
+        // We take our whole shopping List from the Store in one call, then for each Item:
         // -- put taken amount into Cart
+        // -- decrement our desired quantity by what was taken
+        // -- put that result back into our shopping list
         if (canShop) {
-//            //TODO -- MT
-//            try {
-//                shoppingBarrier.await();
-//            } catch (InterruptedException e) {
-//                // TODO -- ANY IMPLICATIONS OF THIS HAPPENING?
-//                  //consider that if we push shopping code inside try/catch, we are still in a
-//                  //possible inconsistent state. I see no good answer right now, but this shouldn't be dismissed
-//            }
-
-            shoppingMap.values().forEach(i -> {
-                // must check again each time,in case we're signaled to stop getting Items
-                if (canShop) {
-                    Item takenItem = store.takeItem(i.getName(), i.getQuantity());
-                    if (takenItem != null) {
-                        cart.addItem(takenItem);
-                        Item decrement = new Item(takenItem.getName(), takenItem.getPrice(),
-                                                  takenItem.getQuantity() * -1, takenItem.getUnits());
-
-                        // this merge will effectively decrement our shopping list
-                        Item listResult = Item.merge(i, decrement);
-                        shoppingMap.put(i.getName(), listResult);
-                    } // Null case just means store didn't have our Item at all
-                }
-            });
+            try {
+                shoppingBarrier.await();
+            } catch (InterruptedException e) {
+                // Nothing has been taken yet, so giving up here leaves no Store state to undo.
+                // Keep the interrupt for whoever runs us
+                canShop = false;
+                Thread.currentThread().interrupt();
+            }
+        }
+        // the Store may have told us to stop while we waited
+        if (canShop && !stopped) {
+            Map<String, Integer> basket = new HashMap<>((shoppingMap.size() * 4 / 3) + 1);
+            shoppingMap.values().forEach(i -> basket.put(i.getName(), i.getQuantity()));
+
+            // the basket is taken in a single step, so a stop signal now can only land before or after it
+            Map<String, Item> takenItems = store.takeItems(basket);
+            takenItems.values().forEach(takenItem -> {
+                cart.addItem(takenItem);
+                Item listItem = shoppingMap.get(takenItem.getName());
+                // Store's current price and units win, as they would in Item.merge
+                shoppingMap.put(takenItem.getName(), new Item(takenItem.getProduct(),
+                                                              listItem.getQuantity() - takenItem.getQuantity()));
+            }); // Items missing from the result just mean store didn't have them at all
         }
     }
 
@@ -182,6 +184,14 @@ public class Shopper implements Runnable {
     }
 
 
+    long getLineJoinedNanos() {
+        return lineJoinedNanos;
+    }
+
+    void setLineJoinedNanos(long lineJoinedNanos) {
+        this.lineJoinedNanos = lineJoinedNanos;
+    }
+
     public void setReceipt(Receipt receipt) {
         this.receipt = receipt;
     }
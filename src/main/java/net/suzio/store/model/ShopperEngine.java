@@ -0,0 +1,80 @@
+package net.suzio.store.model;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs Shoppers, each on its own virtual thread.
+ * <p>
+ * A Shopper spends most of its life blocked: waiting for the Store to let it shop, and waiting in line. A virtual
+ * thread blocked like that holds no platform thread and only a few hundred bytes of stack, so hundreds of thousands of
+ * Shoppers can be in the Store at once. Nothing is kept per Shopper beyond its thread; callers that want results keep
+ * their own references to the Shoppers they start.
+ */
+public class ShopperEngine implements AutoCloseable {
+    private final ExecutorService executor;
+    // LongAdder rather than an atomic count: every Shopper start and finish touches it
+    private final LongAdder started = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+
+    public ShopperEngine() {
+        super();
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("shopper-", 0).factory());
+    }
+
+    /**
+     * Start a Shopper shopping on a new virtual thread. Returns immediately.
+     *
+     * @param shopper Shopper to run
+     * @throws java.util.concurrent.RejectedExecutionException if the engine has been shut down
+     */
+    public void start(Shopper shopper) {
+        executor.execute(() -> {
+            try {
+                shopper.run();
+            } finally {
+                finished.increment();
+            }
+        });
+        // counted after the thread is accepted, so a rejected Shopper never shows as active
+        started.increment();
+    }
+
+    /**
+     * @return Shoppers started and not yet finished. Informational only: the count can change as soon as it is read
+     */
+    public long getActiveCount() {
+        // read finished first, so a Shopper finishing between the two reads cannot make the count negative
+        long done = finished.sum();
+        return Math.max(0, started.sum() - done);
+    }
+
+    /**
+     * Stop accepting Shoppers. Shoppers already started keep going.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for every started Shopper to finish. Call {@link #shutdown()} first.
+     *
+     * @param timeout longest to wait
+     * @param unit    unit of timeout
+     * @return true if all Shoppers finished, false if time ran out first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Stop accepting Shoppers and wait, however long it takes, for those started to finish
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
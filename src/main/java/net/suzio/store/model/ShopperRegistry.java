@@ -0,0 +1,179 @@
+package net.suzio.store.model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Shoppers currently shopping in a Store, each held in an int slot of its own.
+ * <p>
+ * Rather than hashing boxed keys, the registry gives each Shopper a slot when it is added and keeps the slot number
+ * on the Shopper, so removing it needs no lookup. Slots belong to this registry alone and freed slots are handed out
+ * again before new ones, so slots stay dense: the registry only ever spans as many slots as the most Shoppers it has
+ * held at once, however many Shoppers have come and gone, here or in any other Store. Slots are allocated in
+ * fixed-size pages that never move once created, like the columns of the stock table, so traversal needs no lock.
+ * Freed slots go on a lock-free stack, so adding and removing a Shopper takes no lock: only the first Shopper to need
+ * a new page briefly takes one to add it. The live count is striped, so it is cheap to keep and cheap to read.
+ * Traversal walks the pages, in parallel once there are enough Shoppers to make that pay.
+ * <p>
+ * A Shopper can be in one registry at a time, and adding and removing any one Shopper must not race each other.
+ */
+final class ShopperRegistry {
+    private static final int PAGE_SHIFT = 10;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // below this many Shoppers, one thread walks the pages faster than a fork/join split would
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final AtomicIntegerFieldUpdater<Shopper> SLOT =
+            AtomicIntegerFieldUpdater.newUpdater(Shopper.class, "registrySlot");
+
+    private final Object growLock = new Object();
+    // replaced whole when pages are added; the pages themselves are never copied
+    private volatile Page[] pages = new Page[0];
+    private final LongAdder live = new LongAdder();
+    // top of the stack of freed slots: a tag bumped on every change in the high half, so a slot popped and pushed back
+    // between one thread's read and its compare-and-set cannot fool it, and the top slot + 1 (0 for empty) in the low
+    private final AtomicLong freeTop = new AtomicLong();
+    // every slot below this has been handed out at some time
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
+    /**
+     * @param shopper Shopper to add
+     * @return shopper itself if it was already registered, or null
+     */
+    Shopper put(Shopper shopper) {
+        if (shopper.registrySlot >= 0) {
+            return shopper;
+        }
+        int slot = allocate();
+        if (!SLOT.compareAndSet(shopper, -1, slot)) {
+            // registered by another thread meanwhile
+            release(slot);
+            return shopper;
+        }
+        pages[slot >>> PAGE_SHIFT].slots.set(slot & PAGE_MASK, shopper);
+        live.increment();
+        return null;
+    }
+
+    /**
+     * @param shopper Shopper to remove
+     * @return true if this very Shopper was registered, and now is not
+     */
+    boolean remove(Shopper shopper) {
+        int slot = shopper.registrySlot;
+        Page[] current = pages;
+        if (slot < 0 || slot >>> PAGE_SHIFT >= current.length) {
+            return false;
+        }
+        if (current[slot >>> PAGE_SHIFT].slots.compareAndSet(slot & PAGE_MASK, shopper, null)) {
+            shopper.registrySlot = -1;
+            live.decrement();
+            release(slot);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Shoppers registered. Exact when nothing is being added or removed; informational otherwise
+     */
+    int size() {
+        return (int) live.sum();
+    }
+
+    boolean isEmpty() {
+        return live.sum() <= 0;
+    }
+
+    /**
+     * Run an action for every registered Shopper, on this thread. Shoppers added or removed meanwhile may or may not
+     * be seen.
+     *
+     * @param action what to do to each Shopper
+     */
+    void forEach(Consumer<? super Shopper> action) {
+        for (Page page : pages) {
+            page.forEach(action);
+        }
+    }
+
+    /**
+     * As {@link #forEach}, but with pages split across the common fork/join pool when there are many Shoppers, in no
+     * particular order. The action must be safe to run in several threads at once. Returns once every page is done.
+     *
+     * @param action what to do to each Shopper
+     */
+    void forEachParallel(Consumer<? super Shopper> action) {
+        Page[] current = pages;
+        if (live.sum() < PARALLEL_THRESHOLD || current.length < 2) {
+            forEach(action);
+        } else {
+            Arrays.stream(current).parallel().forEach(page -> page.forEach(action));
+        }
+    }
+
+    // a free slot, reusing a released one when there is one, with its page in place
+    private int allocate() {
+        while (true) {
+            long top = freeTop.get();
+            int slot = (int) top - 1;
+            if (slot < 0) {
+                break;
+            }
+            // may be stale if another thread took this slot meanwhile, but then the tag has moved on and the CAS fails
+            int below = pages[slot >>> PAGE_SHIFT].nextFree[slot & PAGE_MASK];
+            if (freeTop.compareAndSet(top, retag(top, below))) {
+                return slot;
+            }
+        }
+        int slot = nextSlot.getAndIncrement();
+        if (slot >>> PAGE_SHIFT >= pages.length) {
+            synchronized (growLock) {
+                Page[] current = pages;
+                if (slot >>> PAGE_SHIFT >= current.length) {
+                    // another thread may hold a lower slot whose page is not in place yet, so fill every gap
+                    Page[] grown = Arrays.copyOf(current, (slot >>> PAGE_SHIFT) + 1);
+                    for (int i = current.length; i < grown.length; i++) {
+                        grown[i] = new Page();
+                    }
+                    pages = grown;
+                }
+            }
+        }
+        return slot;
+    }
+
+    private void release(int slot) {
+        int[] nextFree = pages[slot >>> PAGE_SHIFT].nextFree;
+        long top;
+        do {
+            top = freeTop.get();
+            nextFree[slot & PAGE_MASK] = (int) top;
+        } while (!freeTop.compareAndSet(top, retag(top, slot + 1)));
+    }
+
+    private static long retag(long top, int newTop) {
+        return (((top >>> 32) + 1) << 32) | (newTop & 0xFFFFFFFFL);
+    }
+
+    // One reference per slot in a PAGE_SIZE range
+    private static final class Page {
+        private final AtomicReferenceArray<Shopper> slots = new AtomicReferenceArray<>(PAGE_SIZE);
+        // for a freed slot, the slot + 1 below it on the free stack; published by the CAS that pushes it
+        private final int[] nextFree = new int[PAGE_SIZE];
+
+        private void forEach(Consumer<? super Shopper> action) {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                Shopper shopper = slots.get(i);
+                if (shopper != null) {
+                    action.accept(shopper);
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,20 @@
 package net.suzio.store.model;
 
+import net.suzio.store.model.repository.BulkStockLoader;
+import net.suzio.store.model.repository.InMemoryItemRepository;
+import net.suzio.store.model.repository.ItemRepository;
+import net.suzio.store.model.util.LockProfiler;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -14,32 +26,79 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 @SuppressWarnings("WeakerAccess")
 public class Store {
-    private static final int SHOPPER_WAIT_SLEEP = 5000;
+    private static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 5000;
+    // a Phaser holds at most 65535 parties, so tracked Shoppers are spread over child Phasers under one root
+    private static final int DRAIN_TIERS = 64;
+    private static final int IDLE_SPINS = 1000;
+    // where registerLock is taken, for LockProfiler
+    private static final LockProfiler.Site REGISTER_PASS = LockProfiler.site("registerLock", "checkoutPass");
+    private static final LockProfiler.Site REGISTER_CLOSE = LockProfiler.site("registerLock", "close");
+    private static final LockProfiler.Site REGISTER_START = LockProfiler.site("registerLock", "startRegisters");
+    private static final LockProfiler.Site REGISTER_ADD = LockProfiler.site("registerLock", "addRegister");
+    private static final LockProfiler.Site REGISTER_REMOVE = LockProfiler.site("registerLock", "removeRegister");
+
+    /**
+     * What the main loop does when a pass leaves nothing to do
+     */
+    public enum IdlePolicy {
+        /**
+         * Park the loop thread until the next event or tick. Uses no CPU while idle.
+         */
+        BLOCK,
+        /**
+         * Spin briefly watching for an event before parking. Under sustained load the next event usually arrives
+         * during the spin, saving the cost of parking and waking, at the price of a busy core while it spins.
+         */
+        SPIN_THEN_BLOCK
+    }
 
     // our waiting shoppers are always in a Queue
     private final LinkedBlockingQueue<Shopper> waitingShoppers;
 
-    // try concurrent structure here.
+    // int-keyed without boxing, since every Shopper passes through here.
     // These are Shoppers that are actively shopping but not yet in a Register queue
     // We need to check in our main loop to try to ensure that all of these Shoppers
     // reach a Register for checkout before we stop
-    private final ConcurrentHashMap<Integer, Shopper> shoppingShoppers = new ConcurrentHashMap<>();
+    private final ShopperRegistry shoppingShoppers = new ShopperRegistry();
+    // Every tracked Shopper is a party on one of the tiers, and arrives when it reaches checkout.
+    // The root's own party is the Store, so a phase only ends when closing arrives and every tracked Shopper has too
+    private final Phaser shopperDrain = new Phaser(1);
+    private final Phaser[] shopperDrainTiers = new Phaser[DRAIN_TIERS];
+    private volatile long drainTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DRAIN_TIMEOUT_MILLIS);
+    // phase the Store last arrived at; a close that timed out must not arrive at the same phase twice
+    private volatile int drainArrivedPhase = -1;
 
     // use non-concurrent Maps, and lock selectively -- possible ConcurrentHashMap is better,
     // but won't optimize just yet -- behavior of adding and removing Registers during run() loop
     // seems to be more understandable with explicit locking right now
     private final HashMap<Integer, Register> registers = new HashMap<>();
     private final ReadWriteLock registerLock = new ReentrantReadWriteLock();
-    // As above, could this better be a ConcurrentHashMap?
-    // TODO -- Move this into a Service rather than internal store? JPA or Spring Data storage would be closer to a real model, and separating this out paves the way
-    private final HashMap<String, Item> stock = new HashMap<>();
-    private final ReadWriteLock stockLock = new ReentrantReadWriteLock();
+    // copy of registers.values() for the checkout path, replaced under the write lock whenever registers changes,
+    // so Shoppers pick a Register without locking or copying
+    private volatile Register[] registersInService = new Register[0];
+    private volatile RegisterAssignment registerAssignment = RegisterAssignment.shortestQueue();
+    // one checkout thread per Register, once startRegisters is called
+    private final RegisterWorkers registerWorkers = new RegisterWorkers();
+    // Stock lives in a repository; the Store only decides what to ask of it.
+    // Repositories handle their own thread safety
+    private final ItemRepository stock;
+    // Items handed back by failed checkouts, waiting for the main loop to merge them all in one batch
+    private final ConcurrentLinkedQueue<Collection<Item>> pendingRestocks = new ConcurrentLinkedQueue<>();
+    private final StoreMetrics metrics;
 
     // control variables
     private volatile boolean open;
     private volatile boolean running = true;
     private volatile boolean registerAdd = true;
     private volatile boolean allowCheckout = true;
+    private volatile boolean registersStarted;
+
+    // main loop scheduling
+    private final AtomicBoolean eventPending = new AtomicBoolean();
+    private volatile Thread loopThread;
+    private volatile IdlePolicy idlePolicy = IdlePolicy.BLOCK;
+    // zero: no tick, passes only happen on events
+    private volatile long tickNanos;
 
     // Constructors
 
@@ -53,63 +112,188 @@ public class Store {
     }
 
     /**
-     * Initialize a Store with a set limit on the size of the waiting Shopper line
+     * Initialize a Store with a set limit on the size of the waiting Shopper line, keeping stock in memory
      *
      * @param waitSize limit on number of Shoppers that can be in waiting line
      */
     public Store(int waitSize) {
+        this(waitSize, new InMemoryItemRepository());
+    }
+
+    /**
+     * Initialize a Store keeping its stock in the given repository
+     * No limit on the size of the waiting Shopper line
+     *
+     * @param stock repository holding the Store's stock
+     */
+    public Store(ItemRepository stock) {
+        this(0, stock);
+    }
+
+    /**
+     * Initialize a Store with a set limit on the size of the waiting Shopper line, keeping its stock in the given
+     * repository
+     *
+     * @param waitSize limit on number of Shoppers that can be in waiting line
+     * @param stock    repository holding the Store's stock
+     */
+    public Store(int waitSize, ItemRepository stock) {
         super();
+        this.stock = stock;
+        for (int i = 0; i < DRAIN_TIERS; i++) {
+            shopperDrainTiers[i] = new Phaser(shopperDrain);
+        }
         if (waitSize > 0) {
             waitingShoppers = new LinkedBlockingQueue<>(waitSize);
         } else {
             waitingShoppers = new LinkedBlockingQueue<>();
         }
+        metrics = new StoreMetrics(waitingShoppers::size, () -> registersInService);
     }
     // end of constructors
 
     // Store main loop
+
+    /**
+     * Run the Store until {@link #shutdownStore()} is called, then close it.
+     * <p>
+     * The loop sleeps until something happens -- a Shopper joining the waiting line, the Store opening, a Register
+     * added or removed, a Shopper queued at a Register that is not started, or shutdown -- and then makes one pass:
+     * lets waiting Shoppers in if the Store is open, and gives each Register that has no worker of its own one
+     * checkout. Passes repeat without sleeping while Register lines still have Shoppers in them. How the loop waits is
+     * set by {@link #setIdlePolicy} and {@link #setTickInterval}. Interrupting the thread running the loop also shuts
+     * the Store down.
+     */
     public void run() {
-        // should loop around a running state
-        // while(running) {
+        loopThread = Thread.currentThread();
+        boolean interrupted = false;
+        try {
+            while (running) {
+                // clear before the pass, so an event that lands during it triggers another
+                eventPending.set(false);
+                if (runPass()) {
+                    continue;
+                }
+                if (!idle()) {
+                    // treat an interrupt as shutdown; hold it back until close is done, so close still waits
+                    interrupted = true;
+                    running = false;
+                }
+            }
+        } finally {
+            // from here on restock merges straight away; closing picks up anything queued before
+            loopThread = null;
+        }
+        closeStore();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One pass of the main loop
+     *
+     * @return true if there is more work to do straight away
+     */
+    private boolean runPass() {
+        flushRestocks();
+
         // take any waiting Shoppers and let them proceed; don't wait on entrance of new Shoppers,
-        // since we'll catch them next time around
-        Shopper waiting;
-        while ((waiting = waitingShoppers.poll()) != null) {
-            waiting.allowShop();
+        // since their arrival wakes us for another pass
+        if (open) {
+            Shopper waiting;
+            while ((waiting = waitingShoppers.poll()) != null) {
+                // track them like Shoppers let straight in, so closing waits for them too
+                track(waiting);
+                waiting.allowShop();
+            }
         }
 
-        // run each Register's checkout logic.
+        // run each Register's checkout logic, unless they already check out continuously in their own threads.
         // if a Register is added or removed outside this loop, we either get it next
         // time or handle it if we close before then
-        Lock rLock = registerLock.readLock();
-        rLock.lock();
-        try {
-            Collection<Register> runningRegisters = registers.values();
-            runningRegisters.forEach(Register::checkoutNext);
-        } finally {
-            rLock.unlock();
+        boolean moreInLine = false;
+        if (!registersStarted) {
+            Lock rLock = REGISTER_PASS.wrap(registerLock.readLock());
+            rLock.lock();
+            try {
+                for (Register register : registers.values()) {
+                    register.checkoutNext();
+                    moreInLine |= register.getWaitingCount() > 0;
+                }
+            } finally {
+                rLock.unlock();
+            }
         }
-        //}
+        return moreInLine;
+    }
 
+    /**
+     * Wait for the next event or tick, as the idle policy says
+     *
+     * @return false if interrupted
+     */
+    private boolean idle() {
+        if (idlePolicy == IdlePolicy.SPIN_THEN_BLOCK) {
+            for (int i = 0; i < IDLE_SPINS && !eventPending.get(); i++) {
+                Thread.onSpinWait();
+            }
+        }
+        long tick = tickNanos;
+        long deadline = System.nanoTime() + tick;
+        while (!eventPending.get()) {
+            if (tick > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return true;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+            // park returns at once while interrupted, so never loop on it
+            if (Thread.interrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wake the main loop for another pass. Cheap when it is already awake: only the first event since the last pass
+     * touches the loop thread.
+     */
+    private void signalLoop() {
+        if (!eventPending.get() && eventPending.compareAndSet(false, true)) {
+            Thread thread = loopThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private void closeStore() {
         // no longer running main loop -- perform closing actions
         // no more Shoppers allowed in; no more modifications to our Map of shopping Shoppers
         open = false;
 
+        // Shoppers still waiting outside never get in. Release them told to stop, so they give up instead of blocking
+        Shopper turnedAway;
+        while ((turnedAway = waitingShoppers.poll()) != null) {
+            turnedAway.stopShopping();
+            turnedAway.allowShop();
+        }
+
         // We can now know what Shoppers (if any) are still not in a checkout line in our Registers
         // We want them to make them stop shopping and move into the checkout
         if (!shoppingShoppers.isEmpty()) {
-            shoppingShoppers.values().forEach(Shopper::stopShopping);
+            shoppingShoppers.forEachParallel(Shopper::stopShopping);
 
-            // That takes some time (at most one more Item taken, then enqueueing Shopper into a Register line).
-            // Those actions run inside the Shopper thread, so we can suspend this thread for a short time to allow
-            // those actions to happen.
-            // After that, the Shopper threads will continue, but they won't  won't checkout and
-            // we'll switch to having them put all Items back into stock.
-            try {
-                Thread.sleep(SHOPPER_WAIT_SLEEP);
-            } catch (InterruptedException e) {
-                // If we stop early, no big dea; we just won't have given Shoppers full time to complete
-            }
+            // That takes some time (at most one more basket taken, then enqueueing Shopper into a Register line).
+            // Those actions run inside the Shopper threads; each one arrives on the drain as it reaches checkout,
+            // so we wait exactly until the last one does, or until the drain timeout.
+            // Shoppers later than that won't checkout, and put all their Items back into stock instead.
+            awaitShoppersAtCheckout();
         }
 
         // Son't let any more Shoppers enqueue in a Register
@@ -122,7 +306,7 @@ public class Store {
 
         // clear Register pool and checkout the shoppers in each.
         // lock and don't let go until we've processed all Registers.  Only this thread should be allowed to change the Registers now
-        Lock wLock = registerLock.writeLock();
+        Lock wLock = REGISTER_CLOSE.wrap(registerLock.writeLock());
         wLock.lock();
         try {
             // Have to capture keys in a new set then call remove method; otherwise just iterating
@@ -132,6 +316,9 @@ public class Store {
         } finally {
             wLock.unlock();
         }
+
+        // anything returned while we closed; later returns merge as they come, now the loop is gone
+        flushRestocks();
     }
 
     // External API -- query and change state
@@ -161,7 +348,14 @@ public class Store {
      */
     public void open() {
         open = true;
-        shoppingShoppers.clear();
+        // let in anyone already waiting
+        signalLoop();
+        // forget Shoppers from an earlier opening; they no longer hold up close
+        shoppingShoppers.forEach(shopper -> {
+            if (shoppingShoppers.remove(shopper)) {
+                drainTier(shopper).arriveAndDeregister();
+            }
+        });
     }
 
     /**
@@ -170,6 +364,72 @@ public class Store {
      */
     public void shutdownStore() {
         running = false;
+        signalLoop();
+    }
+
+    /**
+     * Give every Register its own thread, now and as Registers are added, that checks out Shoppers as soon as they
+     * join its line. Until this is called, Registers only check out when {@link #run} polls them. Workers are stopped
+     * as their Registers are removed, which closing the Store does for all of them.
+     */
+    public void startRegisters() {
+        Lock wLock = REGISTER_START.wrap(registerLock.writeLock());
+        wLock.lock();
+        try {
+            // a closed Store has no Registers left to start, and must not start any it is given later
+            if (registerAdd) {
+                registersStarted = true;
+                registers.values().forEach(registerWorkers::start);
+            }
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Choose what the main loop does between events. Defaults to {@link IdlePolicy#BLOCK}.
+     *
+     * @param policy idle policy to use from the next idle period on
+     */
+    public void setIdlePolicy(IdlePolicy policy) {
+        this.idlePolicy = Objects.requireNonNull(policy, "policy");
+    }
+
+    /**
+     * Make the main loop pass at least this often even if nothing signals it, as a backstop for changes it cannot
+     * see, such as Shoppers added straight to a Register. Events still wake it sooner.
+     *
+     * @param interval longest time between passes; zero (the default) means passes only happen on events
+     * @param unit     unit of interval
+     */
+    public void setTickInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Tick interval cannot be negative: " + interval);
+        }
+        tickNanos = unit.toNanos(interval);
+        // pick up the new interval now rather than after the current wait
+        signalLoop();
+    }
+
+    /**
+     * Set how long closing waits for Shoppers still shopping to reach checkout. Closing finishes as soon as the last
+     * one arrives; this is only the upper bound. Defaults to five seconds.
+     *
+     * @param timeout longest to wait; zero does not wait at all
+     * @param unit    unit of timeout
+     */
+    public void setDrainTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Drain timeout cannot be negative: " + timeout);
+        }
+        drainTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return live counters and histograms for this Store; see {@link StoreMetrics#publish} to read them over JMX
+     */
+    public StoreMetrics getMetrics() {
+        return metrics;
     }
 
     // Stock management operations
@@ -183,27 +443,75 @@ public class Store {
      *             guaranteed to be preserved.
      */
     public Item addItem(Item item) {
-        Lock wLock = stockLock.writeLock();
+        return stock.merge(item);
+    }
 
-        wLock.lock();
-        try {
-            String name = item.getName();
-            Item existing = stock.get(name);
-            if (existing != null) {
-                Item updated = Item.merge(existing, item);
-                if (updated.getQuantity() >= 0) {
-                    stock.put(name, updated);
-                    return updated;
-                } else {
-                    return existing;
-                }
-            } else {
-                stock.put(name, item);
-                return item;
-            }
-        } finally {
-            wLock.unlock();
+    /**
+     * Add a batch of Items to the stock, each merged as by {@link #addItem}, in order
+     *
+     * @param items Items to add
+     * @return Items now in stock, keyed by name
+     */
+    public Map<String, Item> addItems(Collection<Item> items) {
+        return stock.mergeAll(items);
+    }
+
+    /**
+     * Stock the Store from a CSV file of {@code name,price,quantity,units} lines, as by {@link #addItems}. The file is
+     * streamed and parsed in parallel; see {@link BulkStockLoader}.
+     *
+     * @param csv file to load
+     * @return number of Items loaded
+     * @throws IOException if the file cannot be read or has a malformed line. Items before the bad line may be loaded
+     */
+    public long loadStock(Path csv) throws IOException {
+        return new BulkStockLoader(stock).load(csv);
+    }
+
+    /**
+     * Return Items to stock, each merged as by {@link #addItem}. While the main loop is running, this only queues them
+     * and returns at once: the loop merges every queued return in one {@link #addItems} batch on its next pass, so a
+     * rush of failed checkouts costs each Item's lock one acquisition per pass rather than one per Cart line. When
+     * the loop is not running they are merged before this returns, and closing the Store merges anything still
+     * queued, so no return is ever lost.
+     *
+     * @param items Items to return; the caller must not change the collection afterwards
+     */
+    public void restock(Collection<Item> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        pendingRestocks.add(items);
+        // queued before reading loopThread, so either the loop is still to run a pass or close that sees it,
+        // or we see the loop gone and merge it ourselves
+        if (loopThread == null) {
+            flushRestocks();
+        } else {
+            signalLoop();
+        }
+    }
+
+    /**
+     * Merge every queued return into stock now, in one batch. The main loop does this on every pass.
+     *
+     * @return number of Items merged
+     */
+    public int flushRestocks() {
+        Collection<Item> first = pendingRestocks.poll();
+        if (first == null) {
+            return 0;
         }
+        Collection<Item> next = pendingRestocks.poll();
+        if (next == null) {
+            stock.mergeAll(first);
+            return first.size();
+        }
+        List<Item> batch = new ArrayList<>(first);
+        do {
+            batch.addAll(next);
+        } while ((next = pendingRestocks.poll()) != null);
+        stock.mergeAll(batch);
+        return batch.size();
     }
 
     /**
@@ -211,13 +519,7 @@ public class Store {
      * @return Item matching name if in stock, or null
      */
     public Item queryItem(String name) {
-        Lock rLock = stockLock.readLock();
-        rLock.lock();
-        try {
-            return stock.get(name);
-        } finally {
-            rLock.unlock();
-        }
+        return stock.find(name);
     }
 
     /**
@@ -229,37 +531,26 @@ public class Store {
      * a lower quantity if the Store does not have that many units
      */
     public Item takeItem(String itemName, int requestedQuantity) {
-        // get Item from stock -- while we do this, nothing else should be modifying the stock
-        // so keep this method small
-        Lock wLock = stockLock.writeLock();
-        Item returnedItem = null;
+        // the repository keeps this atomic for this one Item only, so keep this call small.
+        // If new stock comes in after we return, the requester does not see it. Right now, tough luck for our Shopper
+        Item taken = stock.take(itemName, requestedQuantity);
+        metrics.recordTake(requestedQuantity, taken);
+        return taken;
+    }
 
-        wLock.lock();
-        try {
-            Item stockItem = queryItem(itemName);
-            if (stockItem != null) {
-                // We have to do our modifications here before we release the lock
-                int stockedQuantity = stockItem.getQuantity();
-                int diff = stockedQuantity - requestedQuantity;
-                if (diff < 0) {
-                    // return all we have, and zero out quantity
-                    returnedItem = new Item(itemName, stockItem.getPrice(), stockItem.getQuantity(), stockItem.getUnits());
-                    stockItem = new Item(itemName, stockItem.getPrice(), 0, stockItem.getUnits());
-                    stock.put(itemName, stockItem);
-                } else {
-                    returnedItem = new Item(itemName, stockItem.getPrice(), requestedQuantity, stockItem.getUnits());
-                    stockItem = new Item(itemName, stockItem.getPrice(), diff, stockItem.getUnits());
-                    stock.put(itemName, stockItem);
-                }
-            } // else returnedItem stays null
-        } catch (Exception e) {
-            // should not happen; if we attach a Logger, log out to that, not standard out
-        } finally {
-            wLock.unlock();
-        }
-        // return what we have right now -- so currently if new stock came in after we released the lock and before we return,
-        // the requester does not see it. Right now, tough luck for our Shopper
-        return returnedItem;
+    /**
+     * Request a whole basket of Items from the Store stock in a single call. Each entry is filled exactly as
+     * {@link #takeItem} would fill it, but the basket is walked once, so a Shopper makes one call into the Store no
+     * matter how long its list is.
+     *
+     * @param basket Item names mapped to units wanted
+     * @return Items taken, keyed by name -- a name is missing if the Store does not have that Item at all, and maps to
+     * an Item with a lower quantity than requested if the Store does not have that many units
+     */
+    public Map<String, Item> takeItems(Map<String, Integer> basket) {
+        Map<String, Item> taken = stock.takeAll(basket);
+        basket.forEach((name, quantity) -> metrics.recordTake(quantity, taken.get(name)));
+        return taken;
     }
     // End of stock management
 
@@ -274,10 +565,16 @@ public class Store {
     public Register addRegister(Register register) {
         if (registerAdd) {
             if (register != null) {
-                Lock wLock = registerLock.writeLock();
+                Lock wLock = REGISTER_ADD.wrap(registerLock.writeLock());
                 wLock.lock();
                 try {
                     registers.put(register.getId(), register);
+                    register.setMetrics(metrics);
+                    registersInService = registers.values().toArray(new Register[0]);
+                    if (registersStarted) {
+                        registerWorkers.start(register);
+                    }
+                    signalLoop();
                     return register;
                 } finally {
                     wLock.unlock();
@@ -296,25 +593,42 @@ public class Store {
      */
     public Register removeRegister(Register register) {
         // remove from available pool immediately
-        Lock wLock = registerLock.writeLock();
+        Lock wLock = REGISTER_REMOVE.wrap(registerLock.writeLock());
         Register remove = null;
         if (register != null) {
             wLock.lock();
             try {
                 remove = registers.remove(register.getId());
+                if (remove != null) {
+                    registersInService = registers.values().toArray(new Register[0]);
+                }
             } finally {
                 wLock.unlock();
             }
         }
 
-        // Register is now independent of Store pool and we don't need a lock
+        // Register is now independent of Store pool and we don't need a lock.
+        // Its worker, if any, finishes the Shopper in hand; we check out whoever is left in line
         if (remove != null) {
+            signalLoop();
+            registerWorkers.stop(remove);
             remove.checkoutAll();
+            remove.setMetrics(null);
         }
 
         return remove;
     }
 
+    /**
+     * Choose how Shoppers are assigned to Register lines at checkout. Defaults to
+     * {@link RegisterAssignment#shortestQueue()}.
+     *
+     * @param assignment strategy to use from now on
+     */
+    public void setRegisterAssignment(RegisterAssignment assignment) {
+        this.registerAssignment = Objects.requireNonNull(assignment, "assignment");
+    }
+
     // End of store control logic
 
     // Shopper interactions
@@ -332,11 +646,19 @@ public class Store {
     public boolean startShopper(Shopper shopper) {
         if (isOpen()) {
             // track the Shopper
-            shoppingShoppers.put(shopper.getId(), shopper);
+            track(shopper);
             shopper.allowShop();
             return true;
         } else if (shopper.isWaitable()) {
-            return waitingShoppers.offer(shopper);
+            if (waitingShoppers.offer(shopper)) {
+                metrics.recordWaitingLineJoin(waitingShoppers.size());
+                // closing turns away everyone in line; if it already has, and missed us, step back out of line
+                if (!running && waitingShoppers.remove(shopper)) {
+                    return false;
+                }
+                signalLoop();
+                return true;
+            }
         }
         return false;
     }
@@ -344,13 +666,11 @@ public class Store {
     public boolean startShopperCheckout(Shopper shopper) {
         boolean checkoutSuccess = true;
         if (allowCheckout) {
-            // just assign all to first Register now -- should still work
-            List<Register> availableRegisters = new ArrayList<>(registers.values());
-            // If there are no Registers in service, , you cannot checkout
-            if (!availableRegisters.isEmpty()) {
-                availableRegisters.get(0).addShopper(shopper);
-            } else {
-                checkoutSuccess = false;
+            // If there are no Registers in service, you cannot checkout
+            checkoutSuccess = joinLine(shopper, registersInService);
+            if (checkoutSuccess && !registersStarted) {
+                // only the main loop checks out Registers that have no worker
+                signalLoop();
             }
         } else {
             checkoutSuccess = false;
@@ -359,16 +679,64 @@ public class Store {
         if (!checkoutSuccess) {
             // We must restock Items -- Shopper handles details of what a failed
             // checkout means to it, best nt to reach into its state but rather we
-            // just choose to signal failure
+            // just choose to signal failure. The whole Cart goes back in one batch
             Cart cart = shopper.getCart();
             if (cart != null) {
-                List<Item> cartItems = cart.getItems();
-                cartItems.forEach(this::addItem);
+                restock(cart.getItems());
             }
         }
 
-        shoppingShoppers.remove(shopper.getId());
+        if (shoppingShoppers.remove(shopper)) {
+            // this Shopper is no longer holding up close
+            drainTier(shopper).arriveAndDeregister();
+        }
         return checkoutSuccess;
     }
+
+    private void track(Shopper shopper) {
+        // register before publishing, so the Shopper can never arrive on a tier it is not a party to
+        drainTier(shopper).register();
+        if (shoppingShoppers.put(shopper) != null) {
+            // already tracked, and already counted
+            drainTier(shopper).arriveAndDeregister();
+        }
+    }
+
+    private Phaser drainTier(Shopper shopper) {
+        return shopperDrainTiers[Math.floorMod(shopper.getId(), DRAIN_TIERS)];
+    }
+
+    private void awaitShoppersAtCheckout() {
+        int phase = shopperDrain.getPhase();
+        if (phase != drainArrivedPhase) {
+            phase = shopperDrain.arrive();
+            drainArrivedPhase = phase;
+        }
+        try {
+            shopperDrain.awaitAdvanceInterruptibly(phase, drainTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // stragglers fail checkout and restock once they get there
+        } catch (InterruptedException e) {
+            // If we stop early, no big deal; we just won't have given Shoppers full time to complete
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean joinLine(Shopper shopper, Register[] available) {
+        if (available.length == 0) {
+            return false;
+        }
+        Register chosen = registerAssignment.assign(available, shopper);
+        if (chosen.addShopper(shopper)) {
+            return true;
+        }
+        // chosen line filled up under us; take any line with room
+        for (Register register : available) {
+            if (register != chosen && register.addShopper(shopper)) {
+                return true;
+            }
+        }
+        return false;
+    }
     // end of shopper interactions
 }
@@ -0,0 +1,191 @@
+package net.suzio.store.model;
+
+import net.suzio.store.model.util.Histogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters and histograms for a Store's hot paths: stock takes, the waiting line, Register lines and checkout.
+ * <p>
+ * Recording is cheap enough to stay on all the time: counters are striped {@link LongAdder}s, and so is every
+ * histogram bucket, so threads recording at once do not contend. Nothing is sampled on a timer; line lengths are
+ * recorded each time a Shopper joins a line, which is when they matter. Call {@link #publish} to read them with JMX
+ * tools such as JConsole.
+ */
+public class StoreMetrics implements StoreMetricsMBean {
+    static final String DOMAIN = "net.suzio.store";
+
+    private final LongAdder takeFills = new LongAdder();
+    private final LongAdder takePartialFills = new LongAdder();
+    private final LongAdder takeMisses = new LongAdder();
+    private final LongAdder unarchivedReceipts = new LongAdder();
+    private final Histogram checkoutNanos = new Histogram();
+    private final Histogram waitingLine = new Histogram();
+    private final Histogram registerQueueDepth = new Histogram();
+
+    private final IntSupplier waitingShoppers;
+    private final Supplier<Register[]> registers;
+    private volatile ObjectName published;
+
+    /**
+     * @param waitingShoppers current length of the Store's waiting line
+     * @param registers       Registers currently in service
+     */
+    StoreMetrics(IntSupplier waitingShoppers, Supplier<Register[]> registers) {
+        super();
+        this.waitingShoppers = waitingShoppers;
+        this.registers = registers;
+    }
+
+    /**
+     * Register these metrics with the platform MBean server as {@code net.suzio.store:type=Store,name=<name>}
+     *
+     * @param name name telling this Store apart from others in the same JVM
+     * @return name the MBean was registered under
+     * @throws JMException if the MBean cannot be registered, for example because the name is taken
+     */
+    public ObjectName publish(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=Store,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        published = objectName;
+        return objectName;
+    }
+
+    /**
+     * Remove these metrics from the platform MBean server, if {@link #publish} put them there
+     *
+     * @throws JMException if the MBean cannot be unregistered
+     */
+    public void unpublish() throws JMException {
+        ObjectName objectName = published;
+        if (objectName != null) {
+            published = null;
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+    }
+
+    // recording, called from the hot paths
+
+    void recordTake(int requestedQuantity, Item taken) {
+        if (taken == null) {
+            takeMisses.increment();
+        } else if (taken.getQuantity() < requestedQuantity) {
+            takePartialFills.increment();
+        } else {
+            takeFills.increment();
+        }
+    }
+
+    void recordWaitingLineJoin(int length) {
+        waitingLine.record(length);
+    }
+
+    void recordRegisterLineJoin(int depth) {
+        registerQueueDepth.record(depth);
+    }
+
+    void recordCheckout(long nanos) {
+        checkoutNanos.record(nanos);
+    }
+
+    void recordUnarchivedReceipt() {
+        unarchivedReceipts.increment();
+    }
+
+    // MBean attributes
+
+    @Override
+    public long getTakeFills() {
+        return takeFills.sum();
+    }
+
+    @Override
+    public long getTakePartialFills() {
+        return takePartialFills.sum();
+    }
+
+    @Override
+    public long getTakeMisses() {
+        return takeMisses.sum();
+    }
+
+    @Override
+    public long getUnarchivedReceipts() {
+        return unarchivedReceipts.sum();
+    }
+
+    @Override
+    public long getCheckouts() {
+        return checkoutNanos.getCount();
+    }
+
+    @Override
+    public double getCheckoutLatencyMeanMicros() {
+        return checkoutNanos.getMean() / 1000.0;
+    }
+
+    @Override
+    public long getCheckoutLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(checkoutNanos.getPercentile(0.5));
+    }
+
+    @Override
+    public long getCheckoutLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(checkoutNanos.getPercentile(0.99));
+    }
+
+    @Override
+    public long getCheckoutLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(checkoutNanos.getMax());
+    }
+
+    @Override
+    public int getWaitingShoppers() {
+        return waitingShoppers.getAsInt();
+    }
+
+    @Override
+    public double getWaitingLineMean() {
+        return waitingLine.getMean();
+    }
+
+    @Override
+    public long getWaitingLineMax() {
+        return waitingLine.getMax();
+    }
+
+    @Override
+    public int[] getRegisterQueueDepths() {
+        Register[] inService = registers.get();
+        int[] depths = new int[inService.length];
+        for (int i = 0; i < inService.length; i++) {
+            depths[i] = inService[i].getWaitingCount();
+        }
+        return depths;
+    }
+
+    @Override
+    public double getRegisterQueueDepthMean() {
+        return registerQueueDepth.getMean();
+    }
+
+    @Override
+    public long getRegisterQueueDepthP99() {
+        return registerQueueDepth.getPercentile(0.99);
+    }
+
+    @Override
+    public long getRegisterQueueDepthMax() {
+        return registerQueueDepth.getMax();
+    }
+}
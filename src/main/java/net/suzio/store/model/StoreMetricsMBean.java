@@ -0,0 +1,73 @@
+package net.suzio.store.model;
+
+/**
+ * What {@link StoreMetrics} publishes over JMX. Latencies are in microseconds; percentiles are accurate to within a
+ * factor of two (see {@link net.suzio.store.model.util.Histogram}).
+ */
+public interface StoreMetricsMBean {
+
+    /**
+     * @return takes that got every unit asked for
+     */
+    long getTakeFills();
+
+    /**
+     * @return takes that got some units, but fewer than asked for (possibly none, for a sold-out Item)
+     */
+    long getTakePartialFills();
+
+    /**
+     * @return takes for Items the Store does not stock
+     */
+    long getTakeMisses();
+
+    /**
+     * @return Shoppers checked out by a Register
+     */
+    long getCheckouts();
+
+    /**
+     * @return Receipts printed at checkout that the Receipt archive refused, because it was closed or had failed
+     */
+    long getUnarchivedReceipts();
+
+    /**
+     * @return mean time from joining a Register line to getting a Receipt
+     */
+    double getCheckoutLatencyMeanMicros();
+
+    long getCheckoutLatencyP50Micros();
+
+    long getCheckoutLatencyP99Micros();
+
+    long getCheckoutLatencyMaxMicros();
+
+    /**
+     * @return Shoppers in the Store's waiting line right now
+     */
+    int getWaitingShoppers();
+
+    /**
+     * @return mean length of the waiting line, as seen by each Shopper joining it
+     */
+    double getWaitingLineMean();
+
+    /**
+     * @return longest the waiting line has been
+     */
+    long getWaitingLineMax();
+
+    /**
+     * @return Shoppers in each Register line right now, in no particular order
+     */
+    int[] getRegisterQueueDepths();
+
+    /**
+     * @return mean Register line length, as seen by each Shopper joining one
+     */
+    double getRegisterQueueDepthMean();
+
+    long getRegisterQueueDepthP99();
+
+    long getRegisterQueueDepthMax();
+}
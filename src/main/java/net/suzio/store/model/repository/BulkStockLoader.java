@@ -0,0 +1,184 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Money;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads stock in bulk from CSV, one Item per line: {@code name,price,quantity,units}.
+ * <p>
+ * The file is streamed, never read whole: lines are cut into batches, batches are parsed in parallel, and each parsed
+ * batch goes to {@link ItemRepository#mergeAll} in file order, so the result is the same as calling
+ * {@link ItemRepository#merge} for every line in turn. Only a few batches are held in memory at once.
+ * <p>
+ * The name is everything before the last three commas, so a name may itself contain commas. Blank lines, lines
+ * starting with {@code #}, and a {@code name,price,quantity,units} header on the first line are skipped.
+ */
+public class BulkStockLoader {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private static final String HEADER = "name,price,quantity,units";
+    private static final AtomicInteger LOADER_COUNTER = new AtomicInteger();
+
+    private final ItemRepository stock;
+    private final int batchSize;
+    private final int parallelism;
+
+    /**
+     * @param stock where to load Items
+     */
+    public BulkStockLoader(ItemRepository stock) {
+        this(stock, DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stock       where to load Items
+     * @param batchSize   lines parsed, and Items merged, at a time
+     * @param parallelism threads parsing at once
+     */
+    public BulkStockLoader(ItemRepository stock, int batchSize, int parallelism) {
+        super();
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.stock = stock;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param csv UTF-8 file to load
+     * @return number of Items loaded
+     * @throws IOException if the file cannot be read or a line is malformed. Batches before the bad one stay loaded
+     */
+    public long load(Path csv) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * @param in CSV to load; not closed
+     * @return number of Items loaded
+     * @throws IOException if in cannot be read or a line is malformed. Batches before the bad one stay loaded
+     */
+    public long load(Reader in) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        int loaderId = LOADER_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "stock-loader-" + loaderId + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // enough in flight to keep every parser busy while the oldest batch is merged
+            int maxInFlight = parallelism * 2;
+            Deque<Future<List<Item>>> inFlight = new ArrayDeque<>(maxInFlight);
+            long loaded = 0;
+            long firstLine = 1;
+            List<String> lines = new ArrayList<>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                if (lines.size() == batchSize) {
+                    if (inFlight.size() == maxInFlight) {
+                        loaded += merge(inFlight.removeFirst());
+                    }
+                    inFlight.addLast(parsers.submit(parseTask(lines, firstLine)));
+                    firstLine += lines.size();
+                    lines = new ArrayList<>(batchSize);
+                }
+            }
+            if (!lines.isEmpty()) {
+                inFlight.addLast(parsers.submit(parseTask(lines, firstLine)));
+            }
+            while (!inFlight.isEmpty()) {
+                loaded += merge(inFlight.removeFirst());
+            }
+            return loaded;
+        } finally {
+            // stops any parsing left behind by a failure
+            parsers.shutdownNow();
+        }
+    }
+
+    private int merge(Future<List<Item>> parsed) throws IOException {
+        List<Item> items;
+        try {
+            items = parsed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading stock");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not parse stock", cause);
+        }
+        stock.mergeAll(items);
+        return items.size();
+    }
+
+    private static Callable<List<Item>> parseTask(List<String> lines, long firstLine) {
+        return () -> {
+            List<Item> items = new ArrayList<>(lines.size());
+            long lineNumber = firstLine;
+            for (String line : lines) {
+                String trimmed = line.trim();
+                boolean skip = trimmed.isEmpty() || trimmed.charAt(0) == '#'
+                               || (lineNumber == 1 && trimmed.equalsIgnoreCase(HEADER));
+                if (!skip) {
+                    items.add(parseLine(trimmed, lineNumber));
+                }
+                lineNumber++;
+            }
+            return items;
+        };
+    }
+
+    /**
+     * @param line       one line of CSV, not blank
+     * @param lineNumber position in the file, for error messages
+     * @return Item the line describes
+     * @throws IOException if the line is malformed
+     */
+    static Item parseLine(String line, long lineNumber) throws IOException {
+        // split from the right, so only the name may hold commas
+        int unitsAt = line.lastIndexOf(',');
+        int quantityAt = unitsAt > 0 ? line.lastIndexOf(',', unitsAt - 1) : -1;
+        int priceAt = quantityAt > 0 ? line.lastIndexOf(',', quantityAt - 1) : -1;
+        if (priceAt <= 0) {
+            throw new IOException("Line " + lineNumber + ": expected " + HEADER + " but got: " + line);
+        }
+        String name = line.substring(0, priceAt).trim();
+        try {
+            double price = Double.parseDouble(line.substring(priceAt + 1, quantityAt).trim());
+            int quantity = Integer.parseInt(line.substring(quantityAt + 1, unitsAt).trim());
+            return new Item(name, Money.of(price), quantity, line.substring(unitsAt + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + ": bad price or quantity in: " + line, e);
+        }
+    }
+}
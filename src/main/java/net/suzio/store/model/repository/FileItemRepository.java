@@ -0,0 +1,302 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Money;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Item stock persisted to local disk, surviving restarts.
+ * <p>
+ * All reads and writes are served from an {@link InMemoryItemRepository}, so this backend is exactly as concurrent as
+ * the in-memory one. Every change is also appended to a write-ahead {@link StockJournal} (files next to the snapshot,
+ * named snapshot.journal.N) before the call returns. The journal is compacted into a snapshot file by
+ * {@link #flush()}, by {@link #close()}, and automatically in the background whenever the current journal segment
+ * grows past a size limit. Opening the repository loads the snapshot and replays only the journal written since.
+ * <p>
+ * Snapshots are written to a temporary file then moved over the old one, so a crash mid-write leaves the previous
+ * snapshot and the journal it relies on intact.
+ */
+public class FileItemRepository implements ItemRepository, Closeable {
+    private static final int MAGIC = 0x53544B31; // "STK1"
+    private static final int VERSION = 3;
+    private static final long DEFAULT_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * When a change counts as saved
+     */
+    public enum Durability {
+        /**
+         * Calls return once their change is forced to disk. Concurrent callers share each force (group commit).
+         * <p>
+         * The change is made in memory before the wait, so a call whose wait fails with an UncheckedIOException has
+         * still made it: a take has removed the stock, though the caller never gets it. Nothing is put back, since
+         * the journal has failed and every later change is refused anyway.
+         */
+        SYNC,
+        /**
+         * Calls return as soon as their change is queued for the journal; it reaches disk with the next batch.
+         * A crash can lose the last few milliseconds of changes. Once the journal fails, later changes are refused.
+         */
+        ASYNC
+    }
+
+    private final Path file;
+    private final Durability durability;
+    private final InMemoryItemRepository stock;
+    // set on every journaled change, cleared by a snapshot
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    // serializes snapshots; readers and writers of the stock never touch it
+    private final Object flushLock = new Object();
+    private final ExecutorService checkpointer;
+    private final CheckpointTrigger checkpointTrigger = new CheckpointTrigger();
+    private final StockJournal journal;
+
+    /**
+     * Open a file-backed repository with synchronous durability, loading any stock already saved
+     *
+     * @param file snapshot file to load from and save to; need not exist yet
+     * @throws IOException if saved stock exists but cannot be read, or the journal cannot be created
+     */
+    public FileItemRepository(Path file) throws IOException {
+        this(file, Durability.SYNC, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Open a file-backed repository, loading any stock already saved
+     *
+     * @param file            snapshot file to load from and save to; need not exist yet
+     * @param durability      when a change counts as saved
+     * @param checkpointBytes journal size after which a snapshot is taken in the background
+     * @throws IOException if saved stock exists but cannot be read, or the journal cannot be created
+     */
+    public FileItemRepository(Path file, Durability durability, long checkpointBytes) throws IOException {
+        super();
+        this.file = file;
+        this.durability = durability;
+        this.stock = new InMemoryItemRepository(this::journalChange);
+
+        long firstSegment = Files.exists(file) ? load() : 0;
+        StockJournal.replay(file, firstSegment, (name, item) -> {
+            stock.restore(name, item);
+            // replayed changes are only in the journal until the next snapshot
+            dirty.set(true);
+        });
+
+        checkpointer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "stock-checkpoint-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        journal = new StockJournal(file, checkpointBytes, checkpointTrigger);
+        // only now is there a whole repository for the journal's writer thread to call back into
+        checkpointTrigger.repository = this;
+    }
+
+    @Override
+    public Item find(String name) {
+        return stock.find(name);
+    }
+
+    @Override
+    public Collection<Item> findAll() {
+        return stock.findAll();
+    }
+
+    @Override
+    public Item save(Item item) {
+        checkWritable(item);
+        Item saved = stock.save(item);
+        awaitDurable();
+        return saved;
+    }
+
+    @Override
+    public Item delete(String name) {
+        journal.checkFailure();
+        Item deleted = stock.delete(name);
+        awaitDurable();
+        return deleted;
+    }
+
+    @Override
+    public Item merge(Item item) {
+        checkWritable(item);
+        Item merged = stock.merge(item);
+        awaitDurable();
+        return merged;
+    }
+
+    @Override
+    public Map<String, Item> mergeAll(Collection<Item> items) {
+        items.forEach(this::checkWritable);
+        Map<String, Item> stocked = stock.mergeAll(items);
+        // one wait covers the whole batch
+        awaitDurable();
+        return stocked;
+    }
+
+    @Override
+    public Item take(String name, int requestedQuantity) {
+        journal.checkFailure();
+        Item taken = stock.take(name, requestedQuantity);
+        awaitDurable();
+        return taken;
+    }
+
+    @Override
+    public Map<String, Item> takeAll(Map<String, Integer> basket) {
+        journal.checkFailure();
+        Map<String, Item> taken = stock.takeAll(basket);
+        // one wait covers the whole basket
+        awaitDurable();
+        return taken;
+    }
+
+    /**
+     * Compact the journal: write a snapshot of current stock and delete the journal segments it covers. Does nothing
+     * if stock has not changed since the last snapshot.
+     *
+     * @throws IOException if the snapshot cannot be written; the journal is kept, so nothing is lost
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            // clear first: a change racing with the snapshot marks us dirty again and is picked up next time
+            if (!dirty.getAndSet(false)) {
+                return;
+            }
+            try {
+                // everything journaled before the rotation is already in stock, so the snapshot covers it;
+                // anything after lands in the new segment and is replayed over the snapshot
+                long segment = journal.rotate();
+                write(segment);
+                journal.deleteBefore(segment);
+            } catch (IOException e) {
+                dirty.set(true);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Take a final snapshot and close the journal. The repository should not be used afterwards.
+     *
+     * @throws IOException if the final snapshot or journal write fails
+     */
+    @Override
+    public void close() throws IOException {
+        // drop any queued background snapshot; one already running finishes before ours starts
+        checkpointer.shutdownNow();
+        try {
+            flush();
+        } finally {
+            journal.close();
+        }
+    }
+
+    // called with the changed Item's lock held, so journal order matches change order for that Item
+    private void journalChange(String name, Item item) {
+        journal.append(name, item);
+        // read before writing so the common already-dirty case does not bounce the cache line between cores
+        if (!dirty.get()) {
+            dirty.set(true);
+        }
+    }
+
+    // refuse a change up front that the journal could not take, rather than make it in memory first
+    private void checkWritable(Item item) {
+        journal.checkFailure();
+        if (item != null) {
+            StockJournal.checkEncodable(item.getName(), item);
+        }
+    }
+
+    private void awaitDurable() {
+        if (durability == Durability.SYNC) {
+            journal.sync();
+        }
+    }
+
+    private void scheduleCheckpoint() {
+        try {
+            checkpointer.execute(() -> {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    // the journal still holds every change; the next flush or close tries the snapshot again
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closing; close takes its own snapshot
+        }
+    }
+
+    // returns the first journal segment not covered by the snapshot
+    private long load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a stock file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported stock file version " + version + " in " + file);
+            }
+            long firstSegment = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                Money price = Money.ofCents(in.readLong());
+                int quantity = in.readInt();
+                String units = in.readUTF();
+                stock.restore(name, new Item(name, price, quantity, units));
+            }
+            return firstSegment;
+        }
+    }
+
+    private void write(long firstSegment) throws IOException {
+        Collection<Item> items = stock.findAll();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(firstSegment);
+            out.writeInt(items.size());
+            for (Item item : items) {
+                out.writeUTF(item.getName());
+                out.writeLong(item.getUnitPrice().getCents());
+                out.writeInt(item.getQuantity());
+                out.writeUTF(item.getUnits());
+            }
+            out.flush();
+            // the journal it replaces is about to be deleted, so the snapshot must really be on disk first
+            stream.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // likewise the rename, or a crash could bring back the old snapshot after its journal is gone
+        StockJournal.forceDirectory(file);
+    }
+
+    // Passes the journal's segment-full callback on to the repository, once the repository is fully built
+    private static final class CheckpointTrigger implements Runnable {
+        private volatile FileItemRepository repository;
+
+        @Override
+        public void run() {
+            FileItemRepository target = repository;
+            if (target != null) {
+                target.scheduleCheckpoint();
+            }
+        }
+    }
+}
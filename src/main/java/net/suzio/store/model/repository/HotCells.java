@@ -0,0 +1,139 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Product;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * One hot SKU's quantity, split across several cells that threads take from independently, without any lock.
+ * <p>
+ * Each cell sits on its own cache line, so threads taking from different cells never touch the same memory. A thread
+ * starts at a home cell picked from its id, and when that runs dry it moves on to the neighbouring cells until it has
+ * what it asked for or has tried them all. A cell is only ever decremented by compare-and-set down to zero, so
+ * however many threads take at once, they can never take more than the cells held between them.
+ * <p>
+ * Cells are single-use. To change the quantity, a writer holding the SKU's write lock calls {@link #freeze}, which
+ * swaps every cell for a sentinel and returns the exact total; from then on {@link #take} refuses, and takers fall
+ * back to the SKU's lock. Fresh cells are built for the new quantity once the SKU is hot again. The Product is fixed
+ * for the life of the cells, so a take that succeeded is always priced by the Product that was stocked when it did.
+ */
+final class HotCells {
+    // ints per 64-byte cache line, so neighbouring cells never share one
+    private static final int PAD = 16;
+    private static final int MAX_CELLS = 64;
+    // never a real cell value: a cell only goes negative when the whole quantity is negative, and then never this far
+    private static final int FROZEN = Integer.MIN_VALUE;
+
+    private final Product product;
+    private final AtomicIntegerArray cells;
+    private final int count;
+    private final int mask;
+
+    /**
+     * @param product  Product stocked while these cells are live
+     * @param quantity quantity to spread over the cells
+     */
+    HotCells(Product product, int quantity) {
+        this(defaultCellCount(), product, quantity);
+    }
+
+    /**
+     * @param count    number of cells; rounded up to a power of two
+     * @param product  Product stocked while these cells are live
+     * @param quantity quantity to spread over the cells
+     */
+    HotCells(int count, Product product, int quantity) {
+        this.product = product;
+        this.count = Math.max(2, Integer.highestOneBit(Math.max(1, count - 1)) << 1);
+        this.mask = this.count - 1;
+        this.cells = new AtomicIntegerArray(this.count * PAD);
+        if (quantity < 0) {
+            // nothing can be taken from a negative quantity; keep it whole in one cell so the sum stays exact
+            cells.set(0, quantity);
+            return;
+        }
+        int share = quantity / this.count;
+        int extra = quantity % this.count;
+        for (int i = 0; i < this.count; i++) {
+            cells.set(i * PAD, i < extra ? share + 1 : share);
+        }
+    }
+
+    private static int defaultCellCount() {
+        return Math.min(MAX_CELLS, Runtime.getRuntime().availableProcessors());
+    }
+
+    // for tests: the rounded-up count is not otherwise visible
+    int cellCount() {
+        return count;
+    }
+
+    Product product() {
+        return product;
+    }
+
+    /**
+     * @return total across every cell that is not frozen; some value the cells held as takes went on
+     */
+    int sum() {
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int have = cells.get(i * PAD);
+            if (have != FROZEN) {
+                total += have;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Stop every take, for good. Takes that got in first keep what they took; every later take refuses. Caller holds
+     * the SKU's write lock, so only one thread ever freezes a given set of cells.
+     *
+     * @return exact total the cells held when they froze
+     */
+    int freeze() {
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int have = cells.getAndSet(i * PAD, FROZEN);
+            if (have != FROZEN) {
+                total += have;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Take up to a requested quantity, starting at this thread's home cell and moving on to neighbours as cells run
+     * dry. Safe to call from any number of threads at once.
+     *
+     * @param requested units wanted; must be positive
+     * @return units taken, from zero up to requested; or, if the cells were frozen part way, -(units taken) - 1. Units
+     * taken before the freeze are the caller's either way, and are not in the frozen total.
+     */
+    int take(int requested) {
+        int home = homeCell();
+        int remaining = requested;
+        for (int i = 0; i < count && remaining > 0; i++) {
+            int index = ((home + i) & mask) * PAD;
+            int have;
+            while ((have = cells.get(index)) > 0) {
+                int grab = Math.min(have, remaining);
+                if (cells.compareAndSet(index, have, have - grab)) {
+                    remaining -= grab;
+                    break;
+                }
+            }
+            if (have == FROZEN) {
+                return -(requested - remaining) - 1;
+            }
+        }
+        return requested - remaining;
+    }
+
+    private int homeCell() {
+        // spread consecutive thread ids over the cells
+        long id = Thread.currentThread().threadId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+}
@@ -0,0 +1,425 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Product;
+import net.suzio.store.model.util.LockProfiler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * In-memory stock of Items, locked per SKU rather than as a whole.
+ * <p>
+ * Each Item name is given an int SKU id with its own lock, so taking, adding or repricing one Item never waits on an
+ * operation against a different Item. Lookups read optimistically and write nothing shared unless a change races
+ * with them, so they scale with the number of readers. Quantities are kept in primitive columns of a
+ * {@link StockTable}, so a take only allocates the Item it hands back, and {@link #take(int, int)} allocates nothing
+ * at all for callers that only need a count.
+ * <p>
+ * An Item whose takes keep queueing for its lock is made hot (see {@link #setHotThreshold}): its quantity is split
+ * across cells that takers work on side by side without touching its lock, and without ever overselling.
+ */
+public class InMemoryItemRepository implements ItemRepository {
+
+    /**
+     * Default for {@link #setHotThreshold}
+     */
+    public static final int DEFAULT_HOT_THRESHOLD = 32;
+
+    // where per-SKU locks are taken, for LockProfiler
+    private static final LockProfiler.Site QUERY = LockProfiler.site("stock", "query");
+    private static final LockProfiler.Site QUERY_ALL = LockProfiler.site("stock", "queryAll");
+    private static final LockProfiler.Site SAVE = LockProfiler.site("stock", "save");
+    private static final LockProfiler.Site DELETE = LockProfiler.site("stock", "delete");
+    private static final LockProfiler.Site ADD = LockProfiler.site("stock", "add");
+    private static final LockProfiler.Site TAKE = LockProfiler.site("stock", "take");
+
+    private final StockTable table = new StockTable();
+    // null unless something needs to hear about every change
+    private final StockListener listener;
+    private volatile int hotThreshold = DEFAULT_HOT_THRESHOLD;
+
+    public InMemoryItemRepository() {
+        this(null);
+    }
+
+    /**
+     * @param listener told about every change while it holds the changed Item's lock; may be null
+     */
+    InMemoryItemRepository(StockListener listener) {
+        super();
+        this.listener = listener;
+    }
+
+    @Override
+    public Item find(String name) {
+        int sku = table.idOf(name);
+        return sku < 0 ? null : read(sku, QUERY);
+    }
+
+    @Override
+    public Collection<Item> findAll() {
+        List<Item> all = new ArrayList<>();
+        for (int sku : table.ids()) {
+            Item item = read(sku, QUERY_ALL);
+            if (item != null) {
+                all.add(item);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Read a SKU without writing to any shared memory: an optimistic read stamp is validated after copying the
+     * columns, and only if a write raced with the copy is the read lock taken
+     *
+     * @return Item as stocked, or null if deleted
+     */
+    private Item read(int sku, LockProfiler.Site site) {
+        StampedLock lock = table.lock(sku);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Product product = table.product(sku);
+            int quantity = table.quantity(sku);
+            if (lock.validate(stamp)) {
+                // deleted while we looked it up is the same answer as not stocked
+                return product == null ? null : new Item(product, quantity);
+            }
+        }
+        Lock rLock = site.wrap(lock.asReadLock());
+        rLock.lock();
+        try {
+            return table.isDeleted(sku) ? null : table.item(sku, table.quantity(sku));
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    @Override
+    public Item save(Item item) {
+        while (true) {
+            int sku = skuFor(item);
+            if (sku < 0) {
+                // we stocked a brand new Item
+                return item;
+            }
+
+            Lock wLock = writeLock(SAVE, sku);
+            try {
+                if (!table.isDeleted(sku)) {
+                    table.set(sku, item.getProduct(), item.getQuantity());
+                    changed(item.getName(), item);
+                    return item;
+                }
+            } finally {
+                wLock.unlock();
+            }
+            // deleted under us; go round and stock it fresh
+        }
+    }
+
+    @Override
+    public Item delete(String name) {
+        int sku = table.idOf(name);
+        if (sku < 0) {
+            return null;
+        }
+        Lock wLock = writeLock(DELETE, sku);
+        try {
+            if (table.isDeleted(sku)) {
+                return null;
+            }
+            Item deleted = table.item(sku, table.quantity(sku));
+            // report before unmapping, so a fresh SKU for the same name can only be reported after this
+            changed(name, null);
+            table.delete(sku);
+            return deleted;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    @Override
+    public Item merge(Item item) {
+        return mergeInOrder(Collections.singletonList(item));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Items are grouped by name first, and each name's Items are merged under a single hold of its lock, so a batch
+     * of any size takes each SKU's lock once and a Shopper waits at most for one name's share of the batch.
+     */
+    @Override
+    public Map<String, Item> mergeAll(Collection<Item> items) {
+        // keep each name's Items in the order given
+        Map<String, List<Item>> byName = new LinkedHashMap<>();
+        for (Item item : items) {
+            byName.computeIfAbsent(item.getName(), name -> new ArrayList<>(1)).add(item);
+        }
+        Map<String, Item> stocked = new HashMap<>((byName.size() * 4 / 3) + 1);
+        byName.forEach((name, named) -> stocked.put(name, mergeInOrder(named)));
+        return stocked;
+    }
+
+    // merges Items that all share a name, taking the lock once for as many of them as possible
+    private Item mergeInOrder(List<Item> named) {
+        int next = 0;
+        while (true) {
+            Item first = named.get(next);
+            int sku = skuFor(first);
+            if (sku < 0) {
+                // we stocked a brand new Item; nothing to merge with, but later Items merge into it
+                if (++next == named.size()) {
+                    return first;
+                }
+                sku = table.idOf(first.getName());
+                if (sku < 0) {
+                    // already deleted again; the next Item starts it afresh
+                    continue;
+                }
+            }
+
+            Lock wLock = writeLock(ADD, sku);
+            try {
+                if (!table.isDeleted(sku)) {
+                    for (; next < named.size(); next++) {
+                        mergeLocked(sku, named.get(next));
+                    }
+                    return table.item(sku, table.quantity(sku));
+                }
+            } finally {
+                wLock.unlock();
+            }
+            // deleted under us; go round and stock it fresh
+        }
+    }
+
+    // caller holds the write lock; same rules as Item.merge, without building the intermediate Item
+    private void mergeLocked(int sku, Item item) {
+        int merged = table.quantity(sku) + item.getQuantity();
+        if (merged < 0) {
+            // refused; existing Item is left alone
+            return;
+        }
+        table.set(sku, item.getProduct(), merged);
+        if (listener != null) {
+            listener.stockChanged(item.getName(), table.item(sku, merged));
+        }
+    }
+
+    @Override
+    public Item take(String name, int requestedQuantity) {
+        int sku = table.idOf(name);
+        if (sku < 0) {
+            return null;
+        }
+
+        HotCells cells = requestedQuantity > 0 ? table.hotCells(sku) : null;
+        int alreadyTaken = 0;
+        if (cells != null) {
+            int taken = cells.take(requestedQuantity);
+            if (taken >= 0) {
+                return new Item(cells.product(), taken);
+            }
+            // a writer froze the cells part way; what we got is ours, and the rest comes from under the lock
+            alreadyTaken = -taken - 1;
+        }
+
+        Lock wLock = lockForTake(sku);
+        try {
+            if (table.isDeleted(sku)) {
+                // deleted while we waited for it
+                return alreadyTaken > 0 ? new Item(cells.product(), alreadyTaken) : null;
+            }
+            int taken = alreadyTaken + takeLocked(sku, requestedQuantity - alreadyTaken);
+            table.reheat(sku);
+            // the only Item built is the one the caller gets back
+            return table.item(sku, taken);
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Set how much contention makes a SKU hot. Every take that has to wait for a SKU's lock adds one to its score, and
+     * every take that does not subtracts one; when the score reaches the threshold, the SKU's quantity is split
+     * across {@link HotCells} and from then on takes proceed side by side without the lock, each from its own cell,
+     * borrowing from neighbouring cells as one runs dry. Writes to a hot SKU still take its lock, and freeze the cells
+     * while they hold it; the next take to find them frozen takes the lock too, and gives the SKU fresh cells. Hot SKUs
+     * stay hot. Repositories with a listener, such as {@link FileItemRepository}, never make SKUs hot.
+     *
+     * @param threshold score that makes a SKU hot, or zero to never make SKUs hot
+     */
+    public void setHotThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Hot threshold cannot be negative: " + threshold);
+        }
+        this.hotThreshold = threshold;
+    }
+
+    /**
+     * Make an Item hot straight away, for an Item known to be in demand, instead of waiting for contention to do it.
+     * Does nothing for an Item not stocked, or when the repository has a listener.
+     *
+     * @param name Item name
+     */
+    public void makeHot(String name) {
+        int sku = table.idOf(name);
+        if (sku < 0 || listener != null) {
+            return;
+        }
+        Lock wLock = writeLock(TAKE, sku);
+        try {
+            if (!table.isDeleted(sku)) {
+                table.makeHot(sku);
+            }
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * @param name Item name
+     * @return true if the Item is stocked and hot
+     */
+    boolean isHot(String name) {
+        int sku = table.idOf(name);
+        return sku >= 0 && table.isHot(sku);
+    }
+
+    /**
+     * @param name Item name
+     * @return SKU id to use with {@link #take(int, int)}, or -1 if the Item is not stocked. Ids stay valid until the
+     * Item is deleted.
+     */
+    public int skuOf(String name) {
+        return table.idOf(name);
+    }
+
+    /**
+     * Take up to a requested quantity of an Item by SKU id, without building any Item
+     *
+     * @param sku               id from {@link #skuOf}
+     * @param requestedQuantity units of Item wanted
+     * @return units actually taken, or -1 if the Item has been deleted
+     */
+    public int take(int sku, int requestedQuantity) {
+        HotCells cells = requestedQuantity > 0 ? table.hotCells(sku) : null;
+        int alreadyTaken = 0;
+        if (cells != null) {
+            int taken = cells.take(requestedQuantity);
+            if (taken >= 0) {
+                return taken;
+            }
+            alreadyTaken = -taken - 1;
+        }
+
+        Lock wLock = lockForTake(sku);
+        try {
+            if (table.isDeleted(sku)) {
+                return alreadyTaken > 0 ? alreadyTaken : -1;
+            }
+            int taken = alreadyTaken + takeLocked(sku, requestedQuantity - alreadyTaken);
+            table.reheat(sku);
+            return taken;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Put an Item straight into stock, or remove it, without telling the listener. For rebuilding stock from a
+     * journal or snapshot before the repository is in use.
+     *
+     * @param name Name of Item
+     * @param item Item to stock, or null to remove the name
+     */
+    void restore(String name, Item item) {
+        int sku = table.idOf(name);
+        if (item == null) {
+            if (sku >= 0) {
+                table.delete(sku);
+            }
+        } else if (sku >= 0) {
+            table.set(sku, item.getProduct(), item.getQuantity());
+        } else {
+            table.register(item, null);
+        }
+    }
+
+    /**
+     * Take a SKU's write lock for a take, noting whether the take had to wait. A SKU whose takes keep waiting is made
+     * hot, so later takes spread over {@link HotCells} instead of queueing for this lock. The SKU is settled before
+     * this returns.
+     *
+     * @return the write lock, held
+     */
+    private Lock lockForTake(int sku) {
+        Lock wLock = TAKE.wrap(table.lock(sku).asWriteLock());
+        boolean contended = !wLock.tryLock();
+        if (contended) {
+            wLock.lock();
+        }
+        table.settle(sku);
+        int score = table.scoreContention(sku, contended);
+        int threshold = hotThreshold;
+        // a listener must hear every take in order, which only the write lock guarantees, so journaled stock stays cold
+        if (contended && threshold > 0 && score >= threshold && listener == null && !table.isDeleted(sku)) {
+            // not published yet: the caller's take must work on the settled quantity, and reheats when done
+            table.markHot(sku);
+        }
+        return wLock;
+    }
+
+    /**
+     * Take a SKU's write lock and settle the SKU, so its quantity can be read and written exactly
+     *
+     * @return the write lock, held
+     */
+    private Lock writeLock(LockProfiler.Site site, int sku) {
+        Lock wLock = site.wrap(table.lock(sku).asWriteLock());
+        wLock.lock();
+        table.settle(sku);
+        return wLock;
+    }
+
+    // caller holds the write lock and has settled the SKU
+    private int takeLocked(int sku, int requestedQuantity) {
+        int stockedQuantity = table.quantity(sku);
+        // never hand out more than we have; what we have left may be zero but the Item stays in stock
+        int taken = Math.min(stockedQuantity, requestedQuantity);
+        table.setQuantity(sku, stockedQuantity - taken);
+        if (listener != null) {
+            Item remaining = table.item(sku, stockedQuantity - taken);
+            listener.stockChanged(remaining.getName(), remaining);
+        }
+        return taken;
+    }
+
+    /**
+     * @return SKU id already stocked under the Item's name, or a negative number if we just stocked the Item
+     */
+    private int skuFor(Item item) {
+        int sku = table.idOf(item.getName());
+        if (sku >= 0) {
+            return sku;
+        }
+        int registered = table.register(item, () -> changed(item.getName(), item));
+        // someone else stocked it first: that SKU is the one to work on
+        return registered < 0 ? -registered - 1 : -1;
+    }
+
+    private void changed(String name, Item item) {
+        if (listener != null) {
+            listener.stockChanged(name, item);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage for a Store's stock of Items, keyed by Item name.
+ * <p>
+ * Implementations must be safe to call from many threads at once, and {@link #merge} and {@link #take} must each be
+ * atomic for the Item they touch. Beyond that, the storage engine is up to the implementation.
+ */
+public interface ItemRepository {
+
+    /**
+     * @param name Name of Item to find
+     * @return Item matching name if stocked, or null
+     */
+    Item find(String name);
+
+    /**
+     * @return a point-in-time copy of every stocked Item; not guaranteed to be consistent across Items if the stock
+     * is changing while it is built
+     */
+    Collection<Item> findAll();
+
+    /**
+     * Store an Item outright, replacing any existing Item with the same name without merging.
+     *
+     * @param item Item to store
+     * @return the Item now stored
+     */
+    Item save(Item item);
+
+    /**
+     * Remove an Item from stock entirely
+     *
+     * @param name Name of Item to remove
+     * @return the removed Item, or null if nothing was stocked under that name
+     */
+    Item delete(String name);
+
+    /**
+     * Add an Item to the stock, merging it into any existing Item by the rules of {@link Item#merge}. A merge that
+     * would leave a negative quantity is refused. Repricing an Item is a merge with a quantity of zero.
+     *
+     * @param item Item to add
+     * @return the Item now in stock; if the merge was refused, the unchanged existing Item
+     */
+    Item merge(Item item);
+
+    /**
+     * Add a whole batch of Items, each exactly as {@link #merge} would, in the order given. Several Items with the same
+     * name are merged one after another, so each is refused or accepted against the stock the one before it left.
+     *
+     * @param items Items to add
+     * @return Items now in stock after the batch, keyed by name
+     */
+    default Map<String, Item> mergeAll(Collection<Item> items) {
+        Map<String, Item> stocked = new HashMap<>((items.size() * 4 / 3) + 1);
+        for (Item item : items) {
+            stocked.put(item.getName(), merge(item));
+        }
+        return stocked;
+    }
+
+    /**
+     * Take up to a requested quantity of an Item out of stock. An Item taken down to zero stays in stock.
+     *
+     * @param name              Name of Item to take
+     * @param requestedQuantity units of Item wanted
+     * @return null if the Item is not stocked, otherwise an Item carrying the quantity actually taken (which may be
+     * less than requested, down to zero)
+     */
+    Item take(String name, int requestedQuantity);
+
+    /**
+     * Take a whole basket of Items, each exactly as {@link #take} would.
+     *
+     * @param basket Item names mapped to requested quantities
+     * @return Items actually taken, keyed by name. Names not stocked are absent from the result
+     */
+    default Map<String, Item> takeAll(Map<String, Integer> basket) {
+        Map<String, Item> taken = new HashMap<>((basket.size() * 4 / 3) + 1);
+        basket.forEach((name, quantity) -> {
+            Item item = take(name, quantity);
+            if (item != null) {
+                taken.put(name, item);
+            }
+        });
+        return taken;
+    }
+}
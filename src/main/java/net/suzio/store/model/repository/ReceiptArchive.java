@@ -0,0 +1,616 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Money;
+import net.suzio.store.model.Receipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary archive of every Receipt printed, with an index for end-of-day lookups.
+ * <p>
+ * Receipts are encoded into an in-memory batch under a short lock and written with one FileChannel write per batch,
+ * once the batch fills or on {@link #flush()}. Full batches are written by the archive's own thread, so appending
+ * never does file I/O: a Register thread interrupted mid-checkout cannot close the channel under everyone else. When
+ * the writer falls behind, appenders wait for it once a few batches are pending, so the backlog held in memory stays
+ * bounded. Each Receipt is given an int id in order of arrival, starting from 0 and carrying on across reopens.
+ * Alongside the log, a sidecar index file (log.idx) holds one fixed-size entry per Receipt: where its record starts,
+ * its time and its Register. The index is also held in memory, so finding Receipts by id, by Register or by time range
+ * never reads the log; only {@link #read} does, with one positional read.
+ * <p>
+ * Archive time never goes backwards: a Receipt stamped earlier than the one archived before it is indexed at that
+ * earlier Receipt's time, so the time index stays sorted for binary search.
+ * <p>
+ * Opening an archive after a crash keeps every complete record. The index is trusted as far as its entries are in
+ * order and inside the log, so only the last indexed record and whatever follows it are read back and checked. A torn
+ * or corrupt record at the end of the log is cut off, and index entries missing for records that did reach the log
+ * are rebuilt from it.
+ */
+public class ReceiptArchive implements Closeable {
+    private static final int LOG_MAGIC = 0x52435031;   // "RCP1"
+    private static final int INDEX_MAGIC = 0x52495831; // "RIX1"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 8;
+    // length and CRC32 of the record body
+    private static final int RECORD_HEADER = 8;
+    // offset, time, Register id
+    private static final int INDEX_ENTRY = 8 + 8 + 4;
+    private static final int BATCH_BYTES = 64 * 1024;
+    // appenders wait for the writer once this much is encoded but not yet written
+    private static final int MAX_PENDING_BYTES = 4 * BATCH_BYTES;
+    // ids index int arrays, so the archive holds no more than the largest array allows
+    private static final int MAX_RECEIPTS = Integer.MAX_VALUE - 8;
+    // index entries read per call when opening
+    private static final int ENTRIES_PER_READ = 4096;
+
+    private final Path logFile;
+    private final Path indexFile;
+    private final FileChannel log;
+    private final FileChannel index;
+
+    // appenders encode into these; guarded by appendLock along with the in-memory index
+    private final Object appendLock = new Object();
+    private ByteBuffer logBatch = ByteBuffer.allocate(BATCH_BYTES);
+    private ByteBuffer indexBatch = ByteBuffer.allocate(BATCH_BYTES / 4);
+    private long appendedBytes;
+    private long lastTime = Long.MIN_VALUE;
+    private int count;
+    // record offsets are counted from the end of the file header
+    private long[] offsets = new long[1024];
+    private long[] times = new long[1024];
+    private final Map<Integer, IdList> byRegister = new HashMap<>();
+    private boolean closed;
+    private boolean writeWanted;
+
+    // batches are written in the order they were swapped out, one writer at a time
+    private final Object writeLock = new Object();
+    private ByteBuffer logSpare = ByteBuffer.allocate(BATCH_BYTES);      // guarded by writeLock
+    private ByteBuffer indexSpare = ByteBuffer.allocate(BATCH_BYTES / 4); // guarded by writeLock
+    private volatile IOException failure;                                 // written under writeLock
+
+    private final Thread writer;
+
+    /**
+     * Open an archive, creating it if needed
+     *
+     * @param logFile file holding the Receipt records; the index is written next to it as logFile.idx
+     * @throws IOException if the files cannot be opened, or exist but are not a Receipt archive
+     */
+    public ReceiptArchive(Path logFile) throws IOException {
+        super();
+        this.logFile = logFile;
+        this.indexFile = logFile.resolveSibling(logFile.getFileName() + ".idx");
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            index = FileChannel.open(indexFile,
+                                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            log.close();
+            index.close();
+            throw e;
+        }
+
+        writer = new Thread(this::writeLoop, "receipt-archive-" + logFile.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Archive a Receipt. It is written with the next batch; call {@link #flush()} to write it now. If the writer is
+     * behind by more than a few batches, waits for it to catch up, uninterruptibly like a file write would.
+     *
+     * @param receipt Receipt to archive
+     * @return id of the Receipt in this archive
+     * @throws IllegalStateException if the archive is closed or full
+     * @throws UncheckedIOException  if an earlier batch could not be written; the archive takes nothing more after that
+     */
+    public int append(Receipt receipt) {
+        List<Item> items = receipt.getItems();
+        byte[][] names = new byte[items.size()][];
+        byte[][] units = new byte[items.size()][];
+        // id, time, Register id, total, item count
+        int length = 8 + 8 + 4 + 8 + 4;
+        for (int i = 0; i < names.length; i++) {
+            Item item = items.get(i);
+            names[i] = item.getName().getBytes(StandardCharsets.UTF_8);
+            units[i] = item.getUnits().getBytes(StandardCharsets.UTF_8);
+            length += 2 + names[i].length + 8 + 4 + 2 + units[i].length;
+        }
+
+        int id;
+        boolean interrupted = false;
+        synchronized (appendLock) {
+            while (!closed && failure == null && logBatch.position() >= MAX_PENDING_BYTES) {
+                try {
+                    appendLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (closed) {
+                throw new IllegalStateException("Receipt archive is closed: " + logFile);
+            }
+            IOException failed = failure;
+            if (failed != null) {
+                throw new UncheckedIOException("Receipt archive could not be written: " + logFile, failed);
+            }
+            if (count == MAX_RECEIPTS) {
+                throw new IllegalStateException("Receipt archive is full: " + logFile);
+            }
+            id = count;
+            long time = Math.max(lastTime, receipt.getTimestamp());
+            lastTime = time;
+
+            logBatch = ensureCapacity(logBatch, RECORD_HEADER + length);
+            int start = logBatch.position();
+            logBatch.position(start + RECORD_HEADER);
+            logBatch.putLong(id).putLong(time).putInt(receipt.getRegisterId());
+            logBatch.putLong(receipt.getTotal().getCents()).putInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                Item item = items.get(i);
+                logBatch.putShort((short) names[i].length).put(names[i]);
+                logBatch.putLong(item.getUnitPrice().getCents()).putInt(item.getQuantity());
+                logBatch.putShort((short) units[i].length).put(units[i]);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(logBatch.array(), start + RECORD_HEADER, length);
+            logBatch.putInt(start, length);
+            logBatch.putInt(start + 4, (int) crc.getValue());
+
+            long offset = appendedBytes;
+            appendedBytes += RECORD_HEADER + length;
+            indexBatch = ensureCapacity(indexBatch, INDEX_ENTRY);
+            indexBatch.putLong(offset).putLong(time).putInt(receipt.getRegisterId());
+            remember(offset, time, receipt.getRegisterId());
+            if (logBatch.position() >= BATCH_BYTES && !writeWanted) {
+                writeWanted = true;
+                appendLock.notifyAll();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return number of Receipts archived
+     */
+    public int size() {
+        synchronized (appendLock) {
+            return count;
+        }
+    }
+
+    /**
+     * Read one archived Receipt back
+     *
+     * @param id id returned by {@link #append}
+     * @return the Receipt, with its Items, Register id and archive time
+     * @throws IOException if the archive cannot be read or the record is corrupt
+     * @throws IndexOutOfBoundsException if no Receipt has that id
+     */
+    public Receipt read(int id) throws IOException {
+        long offset;
+        synchronized (appendLock) {
+            if (id < 0 || id >= count) {
+                throw new IndexOutOfBoundsException("No Receipt " + id + " in " + logFile);
+            }
+            offset = offsets[id];
+        }
+        // it may still be sitting in a batch
+        writePending();
+
+        long position = FILE_HEADER + offset;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(log, header, position);
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(log, body, position + RECORD_HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt Receipt record " + id + " in " + logFile);
+        }
+        body.flip();
+        return readRecord(body);
+    }
+
+    /**
+     * @param registerId Register id
+     * @return ids of every Receipt printed by that Register, oldest first
+     */
+    public int[] idsForRegister(int registerId) {
+        synchronized (appendLock) {
+            IdList ids = byRegister.get(registerId);
+            return ids == null ? new int[0] : Arrays.copyOf(ids.ids, ids.size);
+        }
+    }
+
+    /**
+     * @param from earliest archive time wanted, epoch milliseconds, inclusive
+     * @param to   latest archive time wanted, epoch milliseconds, exclusive
+     * @return ids of every Receipt archived in that range, oldest first
+     */
+    public int[] idsBetween(long from, long to) {
+        synchronized (appendLock) {
+            int first = firstAtOrAfter(from);
+            int end = Math.max(first, firstAtOrAfter(to));
+            int[] ids = new int[end - first];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = first + i;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Write every Receipt archived so far and force both files to disk
+     *
+     * @throws IOException if the archive could not be written, now or by an earlier batch
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            writePending();
+            log.force(false);
+            index.force(false);
+        }
+    }
+
+    /**
+     * Flush and close the archive. It cannot be used afterwards.
+     *
+     * @throws IOException if the final write failed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appendLock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            log.close();
+            index.close();
+        }
+    }
+
+    private void writePending() throws IOException {
+        synchronized (writeLock) {
+            if (failure != null) {
+                throw failure;
+            }
+            ByteBuffer logOut;
+            ByteBuffer indexOut;
+            long logPosition;
+            synchronized (appendLock) {
+                if (logBatch.position() == 0) {
+                    return;
+                }
+                // swap batches: appenders carry on into the empty pair while we write this one
+                logOut = logBatch;
+                indexOut = indexBatch;
+                logBatch = logSpare;
+                indexBatch = indexSpare;
+                logPosition = FILE_HEADER + appendedBytes - logOut.position();
+                // room again for any appender waiting on the backlog
+                appendLock.notifyAll();
+            }
+            try {
+                logOut.flip();
+                writeFully(log, logOut, logPosition);
+                indexOut.flip();
+                // entries for the records just written, which are always the newest ones
+                writeFully(index, indexOut, index.size());
+            } catch (IOException e) {
+                failure = e;
+                synchronized (appendLock) {
+                    // appenders waiting for room would wait forever
+                    appendLock.notifyAll();
+                }
+                throw e;
+            } finally {
+                logOut.clear();
+                indexOut.clear();
+                logSpare = logOut;
+                indexSpare = indexOut;
+            }
+        }
+    }
+
+    // writes each batch once it fills, so appenders never touch the files
+    private void writeLoop() {
+        try {
+            while (true) {
+                synchronized (appendLock) {
+                    while (!writeWanted && !closed) {
+                        appendLock.wait();
+                    }
+                    if (closed) {
+                        // close writes whatever is left
+                        return;
+                    }
+                    writeWanted = false;
+                }
+                writePending();
+            }
+        } catch (IOException e) {
+            // kept by writePending: appends fail from now on, and flush, read and close throw it
+        } catch (InterruptedException e) {
+            synchronized (writeLock) {
+                if (failure == null) {
+                    failure = new IOException("Receipt archive writer interrupted", e);
+                }
+            }
+            synchronized (appendLock) {
+                appendLock.notifyAll();
+            }
+        }
+    }
+
+    // rebuild the in-memory index from the files, repairing whatever a crash left behind
+    private void recover() throws IOException {
+        long logSize = log.size();
+        if (logSize == 0) {
+            writeFileHeader(log, LOG_MAGIC);
+            logSize = FILE_HEADER;
+        } else {
+            checkFileHeader(log, LOG_MAGIC, logFile);
+        }
+        long indexSize = index.size();
+        if (indexSize == 0) {
+            writeFileHeader(index, INDEX_MAGIC);
+            indexSize = FILE_HEADER;
+        } else {
+            checkFileHeader(index, INDEX_MAGIC, indexFile);
+        }
+
+        // whole index entries that plausibly point at records: in order, from the start of the log and inside it
+        long entries = Math.min((indexSize - FILE_HEADER) / INDEX_ENTRY, MAX_RECEIPTS);
+        long logEnd = logSize;
+        long[] previous = {-1};
+        long sane = readEntries(entries, (offset, time, registerId) -> {
+            boolean inOrder = previous[0] < 0 ? offset == 0 : offset > previous[0];
+            previous[0] = offset;
+            return inOrder && FILE_HEADER + offset + RECORD_HEADER <= logEnd;
+        });
+
+        // the last of those must really be in the log; entries before it are trusted without reading their records
+        long nextOffset = 0;
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+        while (sane > 0) {
+            entry.clear();
+            readFully(index, entry, FILE_HEADER + (sane - 1) * INDEX_ENTRY);
+            long offset = entry.getLong(0);
+            int length = recordLength(offset, logSize);
+            if (length >= 0) {
+                nextOffset = offset + RECORD_HEADER + length;
+                break;
+            }
+            sane--;
+        }
+        readEntries(sane, (offset, time, registerId) -> {
+            remember(offset, time, registerId);
+            lastTime = Math.max(lastTime, time);
+            return true;
+        });
+        index.truncate(FILE_HEADER + (long) count * INDEX_ENTRY);
+
+        // records that reached the log after the last index entry that did
+        ByteBuffer rebuilt = ByteBuffer.allocate(INDEX_ENTRY);
+        int length;
+        while ((length = recordLength(nextOffset, logSize)) >= 0) {
+            ByteBuffer fields = ByteBuffer.allocate(8 + 8 + 4);
+            readFully(log, fields, FILE_HEADER + nextOffset + RECORD_HEADER);
+            fields.flip();
+            fields.getLong();
+            long time = fields.getLong();
+            int registerId = fields.getInt();
+            rebuilt.clear();
+            rebuilt.putLong(nextOffset).putLong(time).putInt(registerId).flip();
+            writeFully(index, rebuilt, index.size());
+            remember(nextOffset, time, registerId);
+            lastTime = Math.max(lastTime, time);
+            nextOffset += RECORD_HEADER + length;
+        }
+        // anything past the last good record is a torn write nobody was told about
+        log.truncate(FILE_HEADER + nextOffset);
+        appendedBytes = nextOffset;
+    }
+
+    /**
+     * Read index entries from the first, in chunks
+     *
+     * @param entries how many to read at most
+     * @param visitor told of each entry in turn, until it returns false
+     * @return number of entries the visitor accepted
+     */
+    private long readEntries(long entries, EntryVisitor visitor) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(ENTRIES_PER_READ * INDEX_ENTRY);
+        long accepted = 0;
+        while (accepted < entries) {
+            chunk.clear();
+            chunk.limit((int) Math.min(entries - accepted, ENTRIES_PER_READ) * INDEX_ENTRY);
+            readFully(index, chunk, FILE_HEADER + accepted * INDEX_ENTRY);
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                if (!visitor.visit(chunk.getLong(), chunk.getLong(), chunk.getInt())) {
+                    return accepted;
+                }
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * @return body length of the intact record at offset, or -1 if there is none
+     */
+    private int recordLength(long offset, long logSize) throws IOException {
+        long position = FILE_HEADER + offset;
+        if (position + RECORD_HEADER > logSize) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(log, header, position);
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length <= 0 || position + RECORD_HEADER + length > logSize) {
+            return -1;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(log, body, position + RECORD_HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, length);
+        return (int) crc.getValue() == checksum ? length : -1;
+    }
+
+    // appendLock held, or still constructing
+    private void remember(long offset, long time, int registerId) {
+        if (count == offsets.length) {
+            int grown = count > MAX_RECEIPTS / 2 ? MAX_RECEIPTS : count * 2;
+            offsets = Arrays.copyOf(offsets, grown);
+            times = Arrays.copyOf(times, grown);
+        }
+        offsets[count] = offset;
+        times[count] = time;
+        byRegister.computeIfAbsent(registerId, r -> new IdList()).add(count);
+        count++;
+    }
+
+    // appendLock held; times are sorted, so binary search for the first at or after time
+    private int firstAtOrAfter(long time) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static Receipt readRecord(ByteBuffer body) {
+        body.getLong();
+        long time = body.getLong();
+        int registerId = body.getInt();
+        body.getLong();
+        int itemCount = body.getInt();
+        List<Item> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            String name = readString(body);
+            Money price = Money.ofCents(body.getLong());
+            int quantity = body.getInt();
+            String units = readString(body);
+            items.add(new Item(name, price, quantity, units));
+        }
+        return new Receipt(items, registerId, time);
+    }
+
+    private static String readString(ByteBuffer contents) {
+        int length = contents.getShort() & 0xFFFF;
+        String value = new String(contents.array(), contents.position(), length, StandardCharsets.UTF_8);
+        contents.position(contents.position() + length);
+        return value;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer batch, int needed) {
+        if (batch.remaining() >= needed) {
+            return batch;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + needed));
+        batch.flip();
+        return bigger.put(batch);
+    }
+
+    private static void writeFileHeader(FileChannel channel, int magic) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        header.putInt(magic).putInt(VERSION).flip();
+        writeFully(channel, header, 0);
+    }
+
+    private static void checkFileHeader(FileChannel channel, int magic, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        if (channel.size() < FILE_HEADER) {
+            throw new IOException("Not a Receipt archive file: " + file);
+        }
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != magic) {
+            throw new IOException("Not a Receipt archive file: " + file);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported Receipt archive version " + version + " in " + file);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of Receipt archive");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // One index entry as read back when opening
+    @FunctionalInterface
+    private interface EntryVisitor {
+        boolean visit(long offset, long time, int registerId);
+    }
+
+    // Growable list of Receipt ids; an int[] rather than boxed Integers, since a busy Register prints many
+    private static final class IdList {
+        private int[] ids = new int[64];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Money;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of stock changes, written sequentially through a FileChannel with group commit.
+ * <p>
+ * Every record carries the complete new state of one Item (or its deletion), so replaying records in order always
+ * ends in the right state no matter where replay starts -- which is what lets a snapshot be taken while stock keeps
+ * changing. Records are appended into an in-memory batch under a short lock; a single writer thread swaps the batch
+ * out, writes it and forces it to disk once for everyone who appended to it. Callers needing durability wait on
+ * {@link #sync()}, so under load one fsync covers many changes.
+ * <p>
+ * The journal is split into numbered segments. {@link #rotate()} starts a new segment so older ones can be deleted
+ * once a snapshot covers them.
+ */
+class StockJournal implements Closeable {
+    private static final byte DELETE = 2;
+    private static final byte PUT = 3;
+    // length and CRC32 of the record body
+    private static final int RECORD_HEADER = 8;
+    private static final int INITIAL_BATCH = 64 * 1024;
+    // names and units are written with an unsigned short length
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private final Path base;
+    private final long segmentLimit;
+    private final Runnable onSegmentFull;
+
+    // appenders fill one batch while the writer drains the other
+    private final Object appendLock = new Object();
+    private ByteBuffer filling = ByteBuffer.allocate(INITIAL_BATCH);   // guarded by appendLock
+    private volatile long appendedSeq;                                 // written under appendLock
+    private boolean rotateRequested;                                   // guarded by appendLock
+    private boolean closed;                                            // guarded by appendLock
+    private ByteBuffer draining = ByteBuffer.allocate(INITIAL_BATCH);  // writer thread only
+
+    private final Object durableLock = new Object();
+    private volatile long durableSeq;      // written under durableLock
+    private long rotatedSegment = -1;      // guarded by durableLock
+    private volatile IOException failure;  // written under durableLock
+
+    // writer thread only, once started
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes;
+    private boolean segmentFullSignaled;
+
+    private final Thread writer;
+
+    /**
+     * Open a journal, starting a new segment after any existing ones. Existing segments are left for
+     * {@link #replay} and {@link #deleteBefore}.
+     *
+     * @param base          path the segment files are named after; segments are base.journal.N
+     * @param segmentLimit  bytes after which onSegmentFull is called (once per segment)
+     * @param onSegmentFull called from the writer thread when the current segment passes segmentLimit; must not block
+     * @throws IOException if the directory cannot be listed or the new segment cannot be created
+     */
+    StockJournal(Path base, long segmentLimit, Runnable onSegmentFull) throws IOException {
+        super();
+        this.base = base;
+        this.segmentLimit = segmentLimit;
+        this.onSegmentFull = onSegmentFull;
+        List<Long> existing = segments();
+        segment = existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1;
+        channel = open(segment);
+
+        writer = new Thread(this::writeLoop, "stock-journal-" + base.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Replay every record in segments numbered from firstSegment up, oldest first. A torn or corrupt record ends
+     * replay of its segment, since nothing after it in that segment was ever acknowledged as durable.
+     *
+     * @param base         path the segment files are named after
+     * @param firstSegment lowest segment to replay
+     * @param listener     receives each Item state in order; a null Item means the Item was deleted
+     * @throws IOException if a segment cannot be read
+     */
+    static void replay(Path base, long firstSegment, StockListener listener) throws IOException {
+        for (long number : segments(base)) {
+            if (number < firstSegment) {
+                continue;
+            }
+            ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(segmentPath(base, number)));
+            CRC32 crc = new CRC32();
+            while (contents.remaining() >= RECORD_HEADER) {
+                int length = contents.getInt();
+                int checksum = contents.getInt();
+                if (length <= 0 || length > contents.remaining()) {
+                    break;
+                }
+                crc.reset();
+                crc.update(contents.array(), contents.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                readRecord(contents, listener);
+            }
+        }
+    }
+
+    /**
+     * Append one change. Call while holding whatever lock ordered the change, so records for one Item land in the
+     * same order the changes were made.
+     *
+     * @param name Item name
+     * @param item new state of the Item, or null if it was deleted
+     * @return sequence number of the record
+     * @throws IllegalArgumentException if the name or units are too long to record
+     * @throws IllegalStateException    if the journal is closed
+     * @throws UncheckedIOException     if an earlier batch could not be written; the journal takes nothing more after
+     *                                  that
+     */
+    long append(String name, Item item) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] unitsBytes = item == null ? null : item.getUnits().getBytes(StandardCharsets.UTF_8);
+        checkLength(nameBytes, name);
+        if (unitsBytes != null) {
+            checkLength(unitsBytes, item.getUnits());
+        }
+        int length = 1 + 2 + nameBytes.length + (item == null ? 0 : 8 + 4 + 2 + unitsBytes.length);
+
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("Stock journal is closed");
+            }
+            checkFailure();
+            ensureCapacity(RECORD_HEADER + length);
+            ByteBuffer batch = filling;
+            int start = batch.position();
+            batch.position(start + RECORD_HEADER);
+            batch.put(item == null ? DELETE : PUT);
+            batch.putShort((short) nameBytes.length).put(nameBytes);
+            if (item != null) {
+                batch.putLong(item.getUnitPrice().getCents());
+                batch.putInt(item.getQuantity());
+                batch.putShort((short) unitsBytes.length).put(unitsBytes);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(batch.array(), start + RECORD_HEADER, length);
+            batch.putInt(start, length);
+            batch.putInt(start + 4, (int) crc.getValue());
+
+            long seq = ++appendedSeq;
+            appendLock.notifyAll();
+            return seq;
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException if the journal could not be written, and so will take nothing more
+     */
+    void checkFailure() {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException("Stock journal could not be written", failed);
+        }
+    }
+
+    /**
+     * Check that a change could be recorded, without recording it
+     *
+     * @param name Item name
+     * @param item new state of the Item, or null if it is to be deleted
+     * @throws IllegalArgumentException if the name or units are too long to record
+     */
+    static void checkEncodable(String name, Item item) {
+        checkLength(name.getBytes(StandardCharsets.UTF_8), name);
+        if (item != null) {
+            checkLength(item.getUnits().getBytes(StandardCharsets.UTF_8), item.getUnits());
+        }
+    }
+
+    private static void checkLength(byte[] encoded, String value) {
+        if (encoded.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Too long to journal: " + encoded.length + " UTF-8 bytes, starting "
+                                               + value.substring(0, 32));
+        }
+    }
+
+    /**
+     * Wait until every record appended so far is on disk
+     *
+     * @throws UncheckedIOException if the journal could not be written
+     */
+    void sync() {
+        long target = appendedSeq;
+        // already covered by an earlier force: no need to touch either lock
+        if (durableSeq < target) {
+            awaitDurable(target);
+        }
+    }
+
+    /**
+     * Close the current segment once everything appended so far is on disk, and start a new one. Records appended
+     * after this returns go to the new segment.
+     *
+     * @return number of the new segment
+     * @throws IOException if the journal could not be written or the new segment created
+     */
+    long rotate() throws IOException {
+        long before;
+        synchronized (durableLock) {
+            before = rotatedSegment;
+        }
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IOException("Stock journal is closed");
+            }
+            rotateRequested = true;
+            appendLock.notifyAll();
+        }
+        synchronized (durableLock) {
+            while (rotatedSegment == before && failure == null) {
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for journal rotation", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return rotatedSegment;
+        }
+    }
+
+    /**
+     * Delete segments older than the given one; only safe once a snapshot covers them
+     *
+     * @param firstKept lowest segment number to keep
+     * @throws IOException if a segment cannot be deleted
+     */
+    void deleteBefore(long firstKept) throws IOException {
+        for (long number : segments()) {
+            if (number < firstKept) {
+                Files.deleteIfExists(segmentPath(base, number));
+            }
+        }
+    }
+
+    /**
+     * Write out everything appended and stop the writer thread
+     *
+     * @throws IOException if the final write failed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appendLock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (durableLock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                long batchSeq;
+                boolean rotate;
+                boolean finished;
+                synchronized (appendLock) {
+                    while (filling.position() == 0 && !rotateRequested && !closed) {
+                        appendLock.wait();
+                    }
+                    // swap batches: appenders carry on into the empty one while we write this one
+                    ByteBuffer full = filling;
+                    filling = draining;
+                    draining = full;
+                    batchSeq = appendedSeq;
+                    rotate = rotateRequested;
+                    rotateRequested = false;
+                    finished = closed;
+                }
+
+                draining.flip();
+                segmentBytes += draining.remaining();
+                while (draining.hasRemaining()) {
+                    channel.write(draining);
+                }
+                draining.clear();
+                // one force for the whole batch -- this is the group commit
+                channel.force(false);
+
+                if (rotate) {
+                    channel.close();
+                    segment++;
+                    channel = open(segment);
+                    segmentBytes = 0;
+                    segmentFullSignaled = false;
+                }
+                synchronized (durableLock) {
+                    durableSeq = batchSeq;
+                    if (rotate) {
+                        rotatedSegment = segment;
+                    }
+                    durableLock.notifyAll();
+                }
+                if (segmentBytes > segmentLimit && !segmentFullSignaled) {
+                    segmentFullSignaled = true;
+                    onSegmentFull.run();
+                }
+                if (finished) {
+                    channel.close();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("Stock journal writer interrupted", e));
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (durableLock) {
+            failure = e;
+            durableLock.notifyAll();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // already failed; the first error is the one worth reporting
+        }
+    }
+
+    private void awaitDurable(long seq) {
+        boolean interrupted = false;
+        synchronized (durableLock) {
+            while (durableSeq < seq && failure == null) {
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    // keep waiting -- the change is already made, so the caller must not return before it is durable
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (durableLock) {
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+        }
+    }
+
+    // appendLock held
+    private void ensureCapacity(int needed) {
+        if (filling.remaining() < needed) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(filling.capacity() * 2, filling.position() + needed));
+            filling.flip();
+            bigger.put(filling);
+            filling = bigger;
+        }
+    }
+
+    private FileChannel open(long number) throws IOException {
+        FileChannel opened = FileChannel.open(segmentPath(base, number), StandardOpenOption.CREATE,
+                                              StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            // records forced into this segment are only durable once the segment's name is
+            forceDirectory(base);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        return opened;
+    }
+
+    /**
+     * Force the directory holding a file to disk, so a file just created, renamed or deleted there stays that way
+     * after a crash. Forcing a file only covers its contents, not its name.
+     *
+     * @param file any file in the directory
+     * @throws IOException if the directory cannot be opened or forced
+     */
+    static void forceDirectory(Path file) throws IOException {
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        return segments(base);
+    }
+
+    private static List<Long> segments(Path base) throws IOException {
+        String prefix = base.getFileName() + ".journal.";
+        List<Long> numbers = new ArrayList<>();
+        Path directory = base.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                try {
+                    numbers.add(Long.parseLong(file.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static Path segmentPath(Path base, long number) {
+        return base.resolveSibling(base.getFileName() + ".journal." + number);
+    }
+
+    private static void readRecord(ByteBuffer contents, StockListener listener) {
+        byte op = contents.get();
+        String name = readString(contents);
+        if (op == DELETE) {
+            listener.stockChanged(name, null);
+        } else {
+            Money price = Money.ofCents(contents.getLong());
+            int quantity = contents.getInt();
+            String units = readString(contents);
+            listener.stockChanged(name, new Item(name, price, quantity, units));
+        }
+    }
+
+    private static String readString(ByteBuffer contents) {
+        int length = contents.getShort() & 0xFFFF;
+        String value = new String(contents.array(), contents.position(), length, StandardCharsets.UTF_8);
+        contents.position(contents.position() + length);
+        return value;
+    }
+}
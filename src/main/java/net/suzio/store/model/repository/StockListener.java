@@ -0,0 +1,16 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+
+/**
+ * Told about every change to an Item in stock, while the change still holds that Item's lock. Used to journal
+ * changes in the order they were made; implementations must be quick and must not call back into the stock.
+ */
+@FunctionalInterface
+interface StockListener {
+    /**
+     * @param name Name of the Item that changed
+     * @param item new state of the Item, or null if it was deleted
+     */
+    void stockChanged(String name, Item item);
+}
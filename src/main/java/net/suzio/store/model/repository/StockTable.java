@@ -0,0 +1,279 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Product;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Stock held column-wise in primitive arrays, indexed by an int SKU id.
+ * <p>
+ * Each Item name is assigned an id once, the first time it is stocked. After that, quantity lives in an int array
+ * at that index, and changing it allocates nothing. Items are only built when a caller asks for one through
+ * {@link #item}.
+ * <p>
+ * Arrays are allocated in fixed-size pages that never move once created, so growing the table only copies the
+ * small array of page references and never disturbs a page another thread is writing to. Every SKU has its own
+ * {@link StampedLock}; callers must hold it (read for getters, write for setters) when touching that SKU's columns,
+ * except that getters may also be called under an optimistic read stamp, as long as what they return is only used
+ * once the stamp validates.
+ * Ids are never reused: a deleted SKU keeps its slot with a null Product, and stocking the name again gets a new id.
+ * <p>
+ * A SKU can be made hot, after which its quantity lives in {@link HotCells} instead of the quantity column, and takes
+ * go straight to the cells without touching the lock at all. A writer must {@link #settle} the SKU after taking its
+ * write lock and before reading the quantity, which freezes the cells and moves their total back to the column; the
+ * next take under the write lock {@link #reheat reheats} it. Only {@link #hotCells} exposes the cells.
+ */
+final class StockTable {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Object growLock = new Object();
+    // replaced whole when a page is added; the pages themselves are never copied
+    private volatile Page[] pages = new Page[0];
+    private int nextId;  // guarded by growLock
+
+    /**
+     * @param name Item name
+     * @return SKU id for the name, or -1 if the name is not stocked
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return ids of every SKU stocked right now; an id may be deleted by the time the caller locks it
+     */
+    Iterable<Integer> ids() {
+        return ids.values();
+    }
+
+    /**
+     * Stock a name not yet in the table. The new SKU's write lock is held when onCreated runs, so nothing can change
+     * the SKU before the callback has seen it.
+     *
+     * @param item      Item giving the name and the initial column values
+     * @param onCreated run after the SKU is published, still under its write lock; may be null
+     * @return the new SKU id, or if the name was already stocked, -(existing id) - 1
+     */
+    int register(Item item, Runnable onCreated) {
+        String name = item.getName();
+        synchronized (growLock) {
+            Integer existing = ids.get(name);
+            if (existing != null) {
+                return -existing - 1;
+            }
+            int id = nextId++;
+            int pageIndex = id >>> PAGE_SHIFT;
+            Page[] current = pages;
+            if (pageIndex == current.length) {
+                Page[] grown = new Page[current.length + 1];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                grown[pageIndex] = new Page();
+                pages = grown;
+                current = grown;
+            }
+            Page page = current[pageIndex];
+            int slot = id & PAGE_MASK;
+            StampedLock lock = new StampedLock();
+            page.locks[slot] = lock;
+            long stamp = lock.writeLock();
+            try {
+                page.products[slot] = item.getProduct();
+                page.quantities[slot] = item.getQuantity();
+                ids.put(name, id);
+                if (onCreated != null) {
+                    onCreated.run();
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Mark a SKU deleted and unmap its name. Caller holds the SKU's write lock.
+     *
+     * @param id SKU id
+     */
+    void delete(int id) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        Product product = page.products[slot];
+        settle(id);
+        page.products[slot] = null;
+        page.hot[slot] = false;
+        if (product != null) {
+            ids.remove(product.getName(), id);
+        }
+    }
+
+    /**
+     * @return the SKU's lock. It is not reentrant: a thread holding it must not take it again
+     */
+    StampedLock lock(int id) {
+        return page(id).locks[id & PAGE_MASK];
+    }
+
+    /**
+     * @return true if the SKU has been deleted. Caller holds the SKU's lock.
+     */
+    boolean isDeleted(int id) {
+        return page(id).products[id & PAGE_MASK] == null;
+    }
+
+    /**
+     * @return the SKU's Product, or null if it has been deleted. Caller holds the SKU's lock or a read stamp.
+     */
+    Product product(int id) {
+        return page(id).products[id & PAGE_MASK];
+    }
+
+    /**
+     * @return the SKU's quantity. Exact under the write lock once the SKU is settled; for a hot SKU read under the read
+     * lock or a read stamp, some value it held as takes went on
+     */
+    int quantity(int id) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        HotCells cells = page.cells.get(slot);
+        return cells != null ? cells.sum() : page.quantities[slot];
+    }
+
+    /**
+     * Caller holds the SKU's write lock, and settled the SKU before reading the quantity this replaces.
+     */
+    void setQuantity(int id, int quantity) {
+        settle(id);
+        page(id).quantities[id & PAGE_MASK] = quantity;
+    }
+
+    /**
+     * @return the SKU's live cells, or null if it is cold or settled. Needs no lock: cells frozen since are refused by
+     * {@link HotCells#take}
+     */
+    HotCells hotCells(int id) {
+        return page(id).cells.get(id & PAGE_MASK);
+    }
+
+    /**
+     * @return true if the SKU has been made hot, whether or not it is settled right now
+     */
+    boolean isHot(int id) {
+        return page(id).hot[id & PAGE_MASK];
+    }
+
+    /**
+     * Make a SKU hot and move its quantity into cells. Caller holds the write lock.
+     */
+    void makeHot(int id) {
+        markHot(id);
+        reheat(id);
+    }
+
+    /**
+     * Make a SKU hot but leave it settled, for a caller still working on its quantity; {@link #reheat} publishes the
+     * cells once it is done. Caller holds the write lock.
+     */
+    void markHot(int id) {
+        page(id).hot[id & PAGE_MASK] = true;
+    }
+
+    /**
+     * Freeze a hot SKU's cells and move their exact total back to the quantity column, so the quantity can be read and
+     * written under the write lock as for any other SKU. Does nothing for a cold or already settled SKU. Caller holds
+     * the write lock.
+     */
+    void settle(int id) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        HotCells cells = page.cells.get(slot);
+        if (cells != null) {
+            // unpublish first, so takers arriving from now on go to the lock rather than to cells about to freeze
+            page.cells.set(slot, null);
+            page.quantities[slot] = cells.freeze();
+        }
+    }
+
+    /**
+     * Give a settled hot SKU fresh cells holding its quantity and Product. Does nothing for a cold, deleted or already
+     * live SKU. Caller holds the write lock.
+     */
+    void reheat(int id) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        if (page.hot[slot] && page.products[slot] != null && page.cells.get(slot) == null) {
+            page.cells.set(slot, new HotCells(page.products[slot], page.quantities[slot]));
+        }
+    }
+
+    /**
+     * Keep score of how often takes on a SKU have had to wait for its lock: up one for each take that waited, down
+     * one (to no lower than zero) for each that did not. Caller holds the write lock.
+     *
+     * @return the new score
+     */
+    int scoreContention(int id, boolean contended) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        int score = page.contention[slot];
+        if (contended) {
+            score++;
+        } else if (score > 0) {
+            score--;
+        } else {
+            // the common case writes nothing
+            return 0;
+        }
+        page.contention[slot] = score;
+        return score;
+    }
+
+    /**
+     * Overwrite Product (so price and units) and quantity together. Caller holds the SKU's write lock.
+     */
+    void set(int id, Product product, int quantity) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        settle(id);
+        page.products[slot] = product;
+        page.quantities[slot] = quantity;
+    }
+
+    /**
+     * Build an Item from a SKU's columns. Caller holds the SKU's lock.
+     *
+     * @param id       SKU id
+     * @param quantity quantity to put on the Item, which need not be the stocked quantity
+     * @return new Item of the SKU's Product
+     */
+    Item item(int id, int quantity) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        return new Item(page.products[slot], quantity);
+    }
+
+    private Page page(int id) {
+        return pages[id >>> PAGE_SHIFT];
+    }
+
+    // One column slice per PAGE_SIZE ids
+    private static final class Page {
+        private final StampedLock[] locks = new StampedLock[PAGE_SIZE];
+        // Products are shared catalog entries, so Items built from a slot share its name, price and units
+        private final Product[] products = new Product[PAGE_SIZE];
+        private final int[] quantities = new int[PAGE_SIZE];
+        // true once the SKU is made hot; hot SKUs stay hot until deleted
+        private final boolean[] hot = new boolean[PAGE_SIZE];
+        // live cells of a hot SKU, whose quantity then lives there rather than in quantities; read without a lock
+        private final AtomicReferenceArray<HotCells> cells = new AtomicReferenceArray<>(PAGE_SIZE);
+        // scoreContention's running score per SKU
+        private final int[] contention = new int[PAGE_SIZE];
+    }
+}
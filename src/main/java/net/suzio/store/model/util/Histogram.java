@@ -0,0 +1,107 @@
+package net.suzio.store.model.util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative long values, such as latencies in nanoseconds or queue lengths.
+ * <p>
+ * Values fall into power-of-two buckets, so recording is one bucket increment plus count, sum and max updates, with no
+ * lock. Every one of those is striped, bucket counts included, so threads recording at once spread over separate
+ * cells instead of contending on one word or on neighbouring words of one cache line; a bucket only grows its stripes
+ * once threads actually collide on it. The price is precision: a percentile is only known to within a factor of two,
+ * and is reported as the upper bound of its bucket (never more than the largest value seen). Readers see a snapshot
+ * that may be mid-update, which is fine for monitoring.
+ */
+public final class Histogram {
+    // bucket 0 holds zero; bucket b holds [2^(b-1), 2^b - 1]
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        super();
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets[b] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param value value to record; negative values are recorded as zero
+     */
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(v)].increment();
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of every value recorded
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return mean of every value recorded, or zero if none have been
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return largest value recorded, or zero if none have been
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param fraction which percentile, from 0 to 1; 0.99 for the 99th
+     * @return upper bound of the bucket holding that percentile, capped at {@link #getMax()}; zero if nothing has
+     * been recorded
+     */
+    public long getPercentile(double fraction) {
+        if (fraction < 0.0 || fraction > 1.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1: " + fraction);
+        }
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = buckets[b].sum();
+            total += counts[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        // rank of the wanted value, counting from 1
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return Math.min(upperBound(b), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == Long.SIZE ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{count=" + getCount() + ", mean=" + getMean() + ", max=" + getMax() + '}';
+    }
+}
@@ -0,0 +1,101 @@
+package net.suzio.store.model.util;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Product;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Collectors for streams of Items
+ */
+@SuppressWarnings("UtilityClass")
+public final class ItemCollectors {
+
+    private ItemCollectors() {
+        super();
+    }
+
+    /**
+     * Fold a stream of Items into one Item per name, following the rules of {@link Item#merge}: quantities are added,
+     * and the Product (price and units) of the last Item in encounter order wins.
+     * <p>
+     * Quantities are added up as ints in one mutable tally per name, so a repeated Item costs no allocation; Items are
+     * only built once, at the end. Works on parallel streams: each thread folds its own part and the partial tallies
+     * are combined in encounter order.
+     *
+     * @return Collector to a modifiable Map of Item name to folded Item
+     */
+    public static Collector<Item, ?, Map<String, Item>> folding() {
+        return FOLDING;
+    }
+
+    private static final Collector<Item, Map<String, Tally>, Map<String, Item>> FOLDING = new Collector<>() {
+        @Override
+        public Supplier<Map<String, Tally>> supplier() {
+            return HashMap::new;
+        }
+
+        @Override
+        public BiConsumer<Map<String, Tally>, Item> accumulator() {
+            return (tallies, item) -> {
+                Tally tally = tallies.get(item.getName());
+                if (tally == null) {
+                    tallies.put(item.getName(), new Tally(item.getProduct(), item.getQuantity()));
+                } else {
+                    tally.product = item.getProduct();
+                    tally.quantity += item.getQuantity();
+                }
+            };
+        }
+
+        @Override
+        public BinaryOperator<Map<String, Tally>> combiner() {
+            // right holds the later Items, so its Products win
+            return (left, right) -> {
+                right.forEach((name, later) -> {
+                    Tally earlier = left.get(name);
+                    if (earlier == null) {
+                        left.put(name, later);
+                    } else {
+                        earlier.product = later.product;
+                        earlier.quantity += later.quantity;
+                    }
+                });
+                return left;
+            };
+        }
+
+        @Override
+        public Function<Map<String, Tally>, Map<String, Item>> finisher() {
+            return tallies -> {
+                Map<String, Item> folded = new HashMap<>((tallies.size() * 4 / 3) + 1);
+                tallies.forEach((name, tally) -> folded.put(name, new Item(tally.product, tally.quantity)));
+                return folded;
+            };
+        }
+
+        @Override
+        public Set<Characteristics> characteristics() {
+            return Collections.emptySet();
+        }
+    };
+
+    // running total for one name while folding
+    private static final class Tally {
+        private Product product;
+        private int quantity;
+
+        private Tally(Product product, int quantity) {
+            this.product = product;
+            this.quantity = quantity;
+        }
+    }
+}
@@ -2,8 +2,10 @@ package net.suzio.store.model.util;
 
 import net.suzio.store.model.Item;
 
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Utility class for common Item operations not core to Item class
@@ -17,19 +19,17 @@ public final class ItemUtil {
         super();
     }
 
+    /**
+     * Fold Items into one per name, as {@link Item#merge} would
+     *
+     * @param items Items to fold
+     * @return modifiable Map of Item name to folded Item
+     * @see ItemCollectors#folding()
+     */
     public static Map<String, Item> itemsToMap(Iterable<Item> items) {
-        Map<String, Item> map = new HashMap<>();
-
-        items.forEach(i -> {
-            String name = i.getName();
-            Item existing = map.get(name);
-            Item listItem = i;
-            if (existing != null) {
-                listItem = Item.merge(existing, i);
-            }
-            map.put(name, listItem);
-        });
-
-        return map;
+        Stream<Item> stream = items instanceof Collection
+                              ? ((Collection<Item>) items).stream()
+                              : StreamSupport.stream(items.spliterator(), false);
+        return stream.collect(ItemCollectors.folding());
     }
 }
@@ -0,0 +1,262 @@
+package net.suzio.store.model.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Opt-in profiling of lock contention, broken down by the call site taking the lock.
+ * <p>
+ * Each place that takes a lock declares a {@link Site} once, and wraps the lock with it on every acquisition. While
+ * profiling is off, {@link Site#wrap} hands back the lock itself, so the only cost is one volatile read. While it is
+ * on, every acquisition records how long it waited, whether it had to wait at all, and how long the lock was held.
+ * {@link #report()} then shows which operations serialize, worst first.
+ * <p>
+ * Profiling is global to the JVM. Turn it on with {@link #enable()}, or from the start with
+ * {@code -Dnet.suzio.store.profileLocks=true}.
+ */
+@SuppressWarnings("UtilityClass")
+public final class LockProfiler {
+    public static final String ENABLE_PROPERTY = "net.suzio.store.profileLocks";
+
+    private static final ConcurrentHashMap<String, Site> SITES = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLE_PROPERTY);
+
+    private LockProfiler() {
+        super();
+    }
+
+    /**
+     * @param lock      name of the lock, or family of locks, being taken
+     * @param operation what the caller is doing with it
+     * @return the Site for that lock and operation; the same Site every time for the same names
+     */
+    public static Site site(String lock, String operation) {
+        return SITES.computeIfAbsent(lock + '/' + operation, name -> new Site(lock, operation));
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Stop recording. Locks wrapped while profiling was on still record until they are released.
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Forget everything recorded so far, keeping every Site
+     */
+    public static void reset() {
+        SITES.values().forEach(Site::reset);
+    }
+
+    /**
+     * @return every Site that has recorded an acquisition, most total wait time first
+     */
+    public static List<Site> report() {
+        List<Site> sites = new ArrayList<>();
+        for (Site site : SITES.values()) {
+            if (site.getAcquisitions() > 0) {
+                sites.add(site);
+            }
+        }
+        sites.sort(Comparator.comparingLong(Site::getTotalWaitNanos).reversed()
+                             .thenComparing(Site::getName));
+        return sites;
+    }
+
+    /**
+     * Write {@link #report()} as a text table, one line per Site. Times are in microseconds.
+     *
+     * @param out where to write
+     * @param <A> type of out
+     * @return out, for chaining
+     * @throws IOException if out does
+     */
+    public static <A extends Appendable> A writeReport(A out) throws IOException {
+        out.append(String.format("%-32s %12s %10s %14s %10s %10s %10s %10s%n", "site", "acquired", "contended",
+                                 "wait total", "wait p99", "wait max", "hold mean", "hold p99"));
+        for (Site site : report()) {
+            out.append(String.format("%-32s %12d %10d %14d %10d %10d %10.1f %10d%n", site.getName(),
+                                     site.getAcquisitions(), site.getContended(),
+                                     micros(site.getTotalWaitNanos()), micros(site.waitNanos.getPercentile(0.99)),
+                                     micros(site.waitNanos.getMax()), site.holdNanos.getMean() / 1000.0,
+                                     micros(site.holdNanos.getPercentile(0.99))));
+        }
+        return out;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * One place a lock is taken, and everything recorded about taking it there
+     */
+    public static final class Site {
+        private final String lock;
+        private final String operation;
+        private final LongAdder contended = new LongAdder();
+        private volatile Histogram waitNanos = new Histogram();
+        private volatile Histogram holdNanos = new Histogram();
+
+        private Site(String lock, String operation) {
+            this.lock = lock;
+            this.operation = operation;
+        }
+
+        /**
+         * @param target lock about to be taken here
+         * @return target itself while profiling is off; otherwise a single-use Lock that records this acquisition.
+         * Lock and unlock the returned Lock exactly as target would be
+         */
+        public Lock wrap(Lock target) {
+            return enabled ? new ProfiledLock(this, target) : target;
+        }
+
+        public String getName() {
+            return lock + '/' + operation;
+        }
+
+        public String getLock() {
+            return lock;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getAcquisitions() {
+            return waitNanos.getCount();
+        }
+
+        /**
+         * @return acquisitions that found the lock taken and had to wait
+         */
+        public long getContended() {
+            return contended.sum();
+        }
+
+        public long getTotalWaitNanos() {
+            return waitNanos.getSum();
+        }
+
+        /**
+         * @return time spent waiting for the lock, one value per acquisition
+         */
+        public Histogram getWaitNanos() {
+            return waitNanos;
+        }
+
+        /**
+         * @return time the lock was held, one value per release
+         */
+        public Histogram getHoldNanos() {
+            return holdNanos;
+        }
+
+        private void reset() {
+            contended.reset();
+            waitNanos = new Histogram();
+            holdNanos = new Histogram();
+        }
+
+        @Override
+        public String toString() {
+            return "Site{" + getName() + ", acquisitions=" + getAcquisitions() + ", contended=" + getContended() +
+                   ", waitNanos=" + waitNanos + ", holdNanos=" + holdNanos + '}';
+        }
+    }
+
+    // Wraps one acquisition of a lock, so it can remember when that acquisition started holding it
+    private static final class ProfiledLock implements Lock {
+        private final Site site;
+        private final Lock target;
+        private long acquiredAt;
+
+        private ProfiledLock(Site site, Lock target) {
+            this.site = site;
+            this.target = target;
+        }
+
+        @Override
+        public void lock() {
+            if (!target.tryLock()) {
+                long start = System.nanoTime();
+                target.lock();
+                contendedSince(start);
+            } else {
+                acquired(0);
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (!target.tryLock()) {
+                long start = System.nanoTime();
+                target.lockInterruptibly();
+                contendedSince(start);
+            } else {
+                acquired(0);
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (target.tryLock()) {
+                acquired(0);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (target.tryLock()) {
+                acquired(0);
+                return true;
+            }
+            long start = System.nanoTime();
+            if (target.tryLock(time, unit)) {
+                contendedSince(start);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void unlock() {
+            long held = System.nanoTime() - acquiredAt;
+            target.unlock();
+            site.holdNanos.record(held);
+        }
+
+        @Override
+        public Condition newCondition() {
+            return target.newCondition();
+        }
+
+        private void contendedSince(long start) {
+            site.contended.increment();
+            acquired(System.nanoTime() - start);
+        }
+
+        private void acquired(long waited) {
+            acquiredAt = System.nanoTime();
+            site.waitNanos.record(waited);
+        }
+    }
+}
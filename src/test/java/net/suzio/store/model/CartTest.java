@@ -2,12 +2,12 @@ package net.suzio.store.model;
 
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class CartTest {
 
@@ -35,4 +35,76 @@ public class CartTest {
                                " + was never added to Cart, but was present in list returned from it", itemsToAdd.contains(i));
         }
     }
+
+    @Test
+    public void testRepeatsFoldIntoOneLine() {
+        Cart cart = new Cart();
+        cart.addItem(new Item("Bananas", 0.99, 1, "LB"));
+        cart.addItem(new Item("Milk", 2.99, 1, "Gallon"));
+        cart.addItem(new Item("Bananas", 0.99, 2, "LB"));
+
+        List<Item> items = cart.getItems();
+        assertEquals("Repeated Item should share a line", 2, items.size());
+        assertTrue("Folded line has wrong quantity", items.contains(new Item("Bananas", 0.99, 3, "LB")));
+    }
+
+    @Test
+    public void testEmptyLinesLeave() {
+        Cart cart = new Cart();
+        // nothing taken, so nothing to carry
+        cart.addItem(new Item("Bananas", 0.99, 0, "LB"));
+        assertTrue("Zero quantity Item made a line", cart.getItems().isEmpty());
+
+        cart.addItem(new Item("Milk", 2.99, 2, "Gallon"));
+        cart.addItem(new Item("Milk", 2.99, -2, "Gallon"));
+        assertTrue("Line merged down to zero stayed in Cart", cart.getItems().isEmpty());
+    }
+
+    @Test
+    public void testRemoveItem() {
+        Cart cart = new Cart();
+        cart.addItem(new Item("Bananas", 0.99, 3, "LB"));
+        cart.addItem(new Item("Milk", 2.99, 1, "Gallon"));
+        cart.addItem(new Item("Eggs", 3.49, 1, "Dozen"));
+
+        cart.removeItem(new Item("Bananas", 0.99, 1, "LB"));
+        assertTrue("Partial remove wrong", cart.getItems().contains(new Item("Bananas", 0.99, 2, "LB")));
+
+        // removing a line from the middle must leave the others findable
+        cart.removeItem(new Item("Milk", 2.99, 1, "Gallon"));
+        cart.removeItem(new Item("Eggs", 3.49, 1, "Dozen"));
+        cart.removeItem(new Item("Unknown", 1.00, 1, "Each"));
+        assertEquals(Collections.singletonList(new Item("Bananas", 0.99, 2, "LB")), cart.getItems());
+    }
+
+    @Test
+    public void testDrain() {
+        Cart cart = new Cart();
+        cart.addItem(new Item("Bananas", 0.99, 3, "LB"));
+        cart.addItem(new Item("Milk", 2.99, 1, "Gallon"));
+
+        List<Item> drained = cart.drain();
+        assertEquals("Drain lost lines", 2, drained.size());
+        assertTrue("Drained Cart is not empty", cart.getItems().isEmpty());
+
+        // the Cart must not write into the list it handed over
+        cart.addItem(new Item("Eggs", 3.49, 1, "Dozen"));
+        assertEquals("Cart changed a drained list", 2, drained.size());
+        assertEquals(1, cart.getItems().size());
+    }
+
+    @Test
+    public void testEqualityIgnoresLineOrder() {
+        Cart one = new Cart();
+        one.addItem(new Item("Bananas", 0.99, 3, "LB"));
+        one.addItem(new Item("Milk", 2.99, 1, "Gallon"));
+        Cart other = new Cart();
+        other.addItem(new Item("Milk", 2.99, 1, "Gallon"));
+        other.addItem(new Item("Bananas", 0.99, 3, "LB"));
+
+        assertEquals(one, other);
+        assertEquals(one.hashCode(), other.hashCode());
+        other.removeItem(new Item("Milk", 2.99, 1, "Gallon"));
+        assertNotEquals(one, other);
+    }
 }
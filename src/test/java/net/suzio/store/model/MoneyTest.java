@@ -0,0 +1,42 @@
+package net.suzio.store.model;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test of Money arithmetic and formatting
+ */
+public class MoneyTest {
+
+    @Test
+    public void testOfRoundsToCents() {
+        assertEquals(299, Money.of(2.99).getCents());
+        assertEquals(1099, Money.of(10.99).getCents());
+        assertEquals(3, Money.of(0.025).getCents());
+        assertEquals(2.99, Money.of(2.99).toDouble(), 0.0);
+    }
+
+    @Test
+    public void testArithmeticIsExact() {
+        // ten dimes is a dollar, which a double sum of 0.1 does not manage
+        Money total = Money.ZERO;
+        for (int i = 0; i < 10; i++) {
+            total = total.plus(Money.of(0.10));
+        }
+        assertEquals(Money.ofCents(100), total);
+        assertEquals(Money.ofCents(897), Money.of(2.99).times(3));
+    }
+
+    @Test
+    public void testFormatMatchesStringFormat() {
+        long[] amounts = {0, 1, 9, 10, 99, 100, 101, 99999, 100000, 123456789, -1, -150, -123456789,
+                          Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long cents : amounts) {
+            String expected = String.format("$%(,.2f", new BigDecimal(cents).movePointLeft(2));
+            assertEquals("Hand-rolled format differs for " + cents + " cents", expected, Money.format(cents));
+        }
+    }
+}
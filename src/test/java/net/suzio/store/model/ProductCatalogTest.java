@@ -0,0 +1,100 @@
+package net.suzio.store.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of ProductCatalog interning and the Items built on it
+ */
+public class ProductCatalogTest {
+
+    @Test
+    public void testSameProductShared() {
+        Product first = ProductCatalog.intern("Catalog Bananas", Money.of(0.99), "LB");
+        Product second = ProductCatalog.intern("Catalog Bananas", Money.ofCents(99), "LB");
+        assertSame("Same name, price and units should be one Product", first, second);
+
+        Item one = new Item("Catalog Bananas", 0.99, 1, "LB");
+        Item three = new Item("Catalog Bananas", 0.99, 3, "LB");
+        assertSame("Items of the same thing should share a Product", one.getProduct(), three.getProduct());
+    }
+
+    @Test
+    public void testVariantsAreDistinct() {
+        Product base = ProductCatalog.intern("Catalog Milk", Money.of(2.99), "Gallon");
+        assertNotSame("Reprice should be a new Product", base, ProductCatalog.intern("Catalog Milk", Money.of(3.19), "Gallon"));
+        assertNotSame("New units should be a new Product", base, ProductCatalog.intern("Catalog Milk", Money.of(2.99), "Quart"));
+        assertNotSame("New name should be a new Product", base, ProductCatalog.intern("Catalog Cream", Money.of(2.99), "Gallon"));
+        // and the original is still the one handed out
+        assertSame(base, ProductCatalog.intern("Catalog Milk", Money.of(2.99), "Gallon"));
+    }
+
+    @Test
+    public void testNullNameAndUnits() {
+        Product nulls = ProductCatalog.intern(null, Money.ZERO, null);
+        assertSame(nulls, ProductCatalog.intern(null, Money.ZERO, null));
+        assertNotSame("Null name must not collide with the empty name", nulls,
+                      ProductCatalog.intern("", Money.ZERO, null));
+    }
+
+    @Test
+    public void testUnusedVariantsAreDropped() throws InterruptedException {
+        Product kept = ProductCatalog.intern("Catalog Churn", Money.ZERO, "Each");
+        // reprice after reprice, with nothing holding on to the old prices
+        for (int cents = 1; cents <= 10000; cents++) {
+            ProductCatalog.intern("Catalog Churn", Money.ofCents(cents), "Each");
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        int sweeps = 0;
+        while (ProductCatalog.entryCount("Catalog Churn") > 1 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            // a lookup that misses sweeps out whatever has been collected
+            ProductCatalog.intern("Catalog Churn Sweep", Money.ofCents(sweeps++), "Each");
+        }
+        assertEquals("Products nobody uses should be dropped", 1, ProductCatalog.entryCount("Catalog Churn"));
+        assertSame("A Product still in use must stay the one handed out", kept,
+                   ProductCatalog.intern("Catalog Churn", Money.ZERO, "Each"));
+    }
+
+    @Test
+    public void testItemEqualityFollowsProduct() {
+        Item item = new Item("Catalog Eggs", 3.49, 1, "Dozen");
+        assertEquals(item, new Item("Catalog Eggs", 3.49, 1, "Dozen"));
+        assertEquals(item.hashCode(), new Item("Catalog Eggs", 3.49, 1, "Dozen").hashCode());
+        assertNotEquals(item, new Item("Catalog Eggs", 3.49, 2, "Dozen"));
+        assertNotEquals(item, new Item("Catalog Eggs", 3.59, 1, "Dozen"));
+        assertEquals(item, new Item(item.getProduct(), 1));
+    }
+
+    @Test
+    public void testConcurrentInternMakesOneProduct() throws Exception {
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Product>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return ProductCatalog.intern("Catalog Race", Money.of(1.23), "Each");
+                }));
+            }
+            start.countDown();
+            Set<Product> distinct = new HashSet<>();
+            for (Future<Product> result : results) {
+                distinct.add(result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals("Racing interns made more than one Product", 1, distinct.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
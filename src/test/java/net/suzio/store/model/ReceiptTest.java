@@ -2,7 +2,10 @@ package net.suzio.store.model;
 
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -16,8 +19,6 @@ import static org.junit.Assert.*;
 public class ReceiptTest {
     @Test
     public void testOrderByPrice() {
-        Receipt receipt = new Receipt();
-
         String bananas = "Bananas";
         String grapes = "Grapes";
         List<Item> items = new ArrayList<>();
@@ -25,7 +26,7 @@ public class ReceiptTest {
         Item lbOfGrapes = new Item(grapes, 2.99, 1, "LB");
         items.add(oneBanana);
         items.add(lbOfGrapes);
-        receipt.addItems(items);
+        Receipt receipt = new Receipt(items);
 
         // expect to be returned in price order, not insertion order
         List<String> itemizedLines = receipt.getItemizedLines();
@@ -46,8 +47,6 @@ public class ReceiptTest {
 
     @Test
     public void testOrderByPriceAndName() {
-        Receipt receipt = new Receipt();
-
         String bananas = "Bananas";
         String grapes = "Grapes";
         String milk = "Milk";
@@ -58,7 +57,7 @@ public class ReceiptTest {
         items.add(oneBanana);
         items.add(lbOfGrapes);
         items.add(gallonOfMilk);
-        receipt.addItems(items);
+        Receipt receipt = new Receipt(items);
 
         // expect to be returned in price and Name (descending) order, not insertion order
         List<String> itemizedLines = receipt.getItemizedLines();
@@ -94,13 +93,12 @@ public class ReceiptTest {
                 4.99,
         };
         for (double price : validPrices) {
-            Receipt receipt = new Receipt();
             List<Item> items = new ArrayList<>();
             Item item1 = new Item("one", price, 1, "LB");
             Item item2 = new Item("two", price, 1, "LB");
             items.add(item1);
             items.add(item2);
-            receipt.addItems(items);
+            Receipt receipt = new Receipt(items);
 
             // See if *any* price is in the results
             // Should have a literal $ followed by any number of digits, then pennies
@@ -114,4 +112,70 @@ public class ReceiptTest {
             assertTrue(receiptSum.contains(expectedSum));
         }
     }
+
+    @Test
+    public void testTotalCountsQuantity() {
+        List<Item> items = new ArrayList<>();
+        items.add(new Item("Bananas", 0.99, 3, "LB"));
+        items.add(new Item("Milk", 2.99, 2, "Gallon"));
+        Receipt receipt = new Receipt(items);
+
+        // 3 * 0.99 + 2 * 2.99, exactly -- summing doubles would not reliably give this
+        assertEquals("Total should multiply unit price by quantity", Money.ofCents(895), receipt.getTotal());
+        assertEquals("Formatted total was wrong", "$8.95", receipt.getFormattedTotal());
+    }
+
+    @Test
+    public void testLineLayoutUnchanged() {
+        Item[] items = {
+                new Item("Bananas", 0.99, 3, "LB"),
+                new Item("Caviar", 1234.5, 2, "Tin"),
+                new Item("Coupon", -1.5, 1, "Each")
+        };
+        List<String> lines = new Receipt(Arrays.asList(items)).getItemizedLines();
+        assertEquals(items.length, lines.size());
+        // lines are sorted by price, so check each Item against whichever line names it
+        for (Item item : items) {
+            String expected = String.format("%s %d @$%(,.2f/%s == $%(,.2f", item.getName(), item.getQuantity(),
+                                            item.getPrice(), item.getUnits(),
+                                            item.getUnitPrice().times(item.getQuantity()).toDouble());
+            assertTrue("Line layout changed: expected " + expected + " in " + lines, lines.contains(expected));
+        }
+    }
+
+    @Test
+    public void testRenderingIsCached() {
+        Receipt receipt = new Receipt(Collections.singletonList(new Item("Bananas", 0.99, 3, "LB")));
+        List<String> lines = receipt.getItemizedLines();
+        assertSame("Itemized lines were rendered twice", lines, receipt.getItemizedLines());
+        assertSame("Total was rendered twice", receipt.getFormattedTotal(), receipt.getFormattedTotal());
+    }
+
+    @Test
+    public void testItemsFixedWhenBuilt() {
+        List<Item> items = new ArrayList<>();
+        items.add(new Item("Bananas", 0.99, 3, "LB"));
+        Receipt receipt = new Receipt(items);
+
+        // the Receipt copied the list, so changing it afterwards changes nothing printed
+        items.add(new Item("Milk", 2.99, 1, "Gallon"));
+        assertEquals(1, receipt.getItems().size());
+        assertEquals(1, receipt.getItemizedLines().size());
+        assertEquals("$2.97", receipt.getFormattedTotal());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testItemizedLinesUnmodifiable() {
+        new Receipt(Collections.singletonList(new Item("Bananas", 0.99, 3, "LB"))).getItemizedLines().clear();
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        Receipt receipt = new Receipt(Arrays.asList(new Item("Bananas", 0.99, 3, "LB"),
+                                                    new Item("Milk", 2.99, 2, "Gallon")));
+        String text = receipt.writeTo(new StringBuilder()).toString();
+        assertEquals("Milk 2 @$2.99/Gallon == $5.98\n" +
+                     "Bananas 3 @$0.99/LB == $2.97\n" +
+                     "Total $8.95\n", text);
+    }
 }
@@ -0,0 +1,73 @@
+package net.suzio.store.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of the built-in RegisterAssignment strategies
+ */
+public class RegisterAssignmentTest {
+
+    @Test
+    public void testShortestQueue() {
+        Register[] registers = registers(3, 0);
+        fill(registers[0], 3);
+        fill(registers[1], 1);
+        fill(registers[2], 2);
+        assertSame("Shortest line was not chosen", registers[1],
+                   RegisterAssignment.shortestQueue().assign(registers, new Shopper()));
+    }
+
+    @Test
+    public void testShortestQueueSkipsFullLine() {
+        Register[] registers = {new Register(1), new Register(5)};
+        fill(registers[1], 3);
+        assertSame("Empty line should win while it has room", registers[0],
+                   RegisterAssignment.shortestQueue().assign(registers, new Shopper()));
+        fill(registers[0], 1);
+        assertSame("Full line should be skipped even though it is shorter", registers[1],
+                   RegisterAssignment.shortestQueue().assign(registers, new Shopper()));
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesAvoidsLongestLine() {
+        Register[] registers = registers(2, 0);
+        fill(registers[0], 10);
+        RegisterAssignment assignment = RegisterAssignment.powerOfTwoChoices();
+        // with only two Registers both are always compared
+        for (int i = 0; i < 100; i++) {
+            assertSame("Longer of two lines chosen", registers[1], assignment.assign(registers, new Shopper()));
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesSingleRegister() {
+        Register[] registers = registers(1, 0);
+        assertSame(registers[0], RegisterAssignment.powerOfTwoChoices().assign(registers, new Shopper()));
+    }
+
+    @Test
+    public void testRoundRobin() {
+        Register[] registers = registers(3, 0);
+        RegisterAssignment assignment = RegisterAssignment.roundRobin();
+        for (int i = 0; i < 7; i++) {
+            assertSame("Register out of turn at call " + i, registers[i % registers.length],
+                       assignment.assign(registers, new Shopper()));
+        }
+    }
+
+    private static Register[] registers(int count, int lineLimit) {
+        Register[] registers = new Register[count];
+        for (int i = 0; i < count; i++) {
+            registers[i] = new Register(lineLimit);
+        }
+        return registers;
+    }
+
+    private static void fill(Register register, int shoppers) {
+        for (int i = 0; i < shoppers; i++) {
+            register.addShopper(new Shopper());
+        }
+    }
+}
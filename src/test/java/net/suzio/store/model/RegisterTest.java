@@ -1,7 +1,14 @@
 package net.suzio.store.model;
 
+import net.suzio.store.model.repository.ReceiptArchive;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
 import java.util.Collections;
 
 import static org.junit.Assert.*;
@@ -13,6 +20,9 @@ import static org.mockito.Mockito.*;
  */
 public class RegisterTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testIdAssignment() {
         Register r1 = new Register();
@@ -63,9 +73,9 @@ public class RegisterTest {
         doCallRealMethod().when(shopper).setReceipt(any(Receipt.class));
         //noinspection ResultOfMethodCallIgnored
         doCallRealMethod().when(shopper).getReceipt();
-        // verify cart clear method got called
+        // verify cart drain method got called
 
-        when(oneItemCart.getItems()).thenReturn(Collections.singletonList(new Item("Test", 1.0, 4, "Packages")));
+        when(oneItemCart.drain()).thenReturn(new ArrayList<>(Collections.singletonList(new Item("Test", 1.0, 4, "Packages"))));
 
         register.addShopper(shopper);
         register.checkoutNext();
@@ -75,7 +85,24 @@ public class RegisterTest {
         assertNotNull("Shopper checkout did not result in a valid receipt", r);
         assertEquals("Shopper receipt did not have correct number of items", 1, r.getItemizedLines().size());
 
-        // The shopper cart should be cleared
-        verify(oneItemCart).clear();
+        // The shopper cart should be emptied by handing its lines over
+        verify(oneItemCart).drain();
+    }
+
+    @Test
+    public void testCheckoutArchivesReceipt() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            Register register = new Register(0, archive);
+            Shopper shopper = new Shopper();
+            shopper.getCart().addItem(new Item("Test", 1.0, 4, "Packages"));
+            register.addShopper(shopper);
+            register.checkoutNext();
+
+            int[] ids = archive.idsForRegister(register.getId());
+            assertEquals("Receipt was not archived under its Register", 1, ids.length);
+            assertEquals("Archived Receipt differs from the Shopper's", shopper.getReceipt().getItems(),
+                         archive.read(ids[0]).getItems());
+        }
     }
 }
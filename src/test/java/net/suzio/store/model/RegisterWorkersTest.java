@@ -0,0 +1,174 @@
+package net.suzio.store.model;
+
+import net.suzio.store.model.repository.ReceiptArchive;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of RegisterWorkers threads
+ */
+public class RegisterWorkersTest {
+
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChecksOutContinuously() throws InterruptedException {
+        RegisterWorkers workers = new RegisterWorkers();
+        Register register = new Register();
+        workers.start(register);
+        try {
+            // Shoppers arriving one after another, well after the worker started waiting
+            List<Shopper> shoppers = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                Shopper shopper = shopperWithCart();
+                shoppers.add(shopper);
+                assertTrue("Register refused Shopper #" + i, register.addShopper(shopper));
+            }
+            for (Shopper shopper : shoppers) {
+                assertNotNull("Shopper was never checked out: " + shopper.getId(), awaitReceipt(shopper));
+            }
+        } finally {
+            workers.stop(register);
+        }
+    }
+
+    @Test
+    public void testStartTwiceIsOneWorker() {
+        RegisterWorkers workers = new RegisterWorkers();
+        Register register = new Register();
+        workers.start(register);
+        workers.start(register);
+        assertEquals("Register should have exactly one worker", 1, workerThreads(register));
+        assertTrue(workers.stop(register));
+        assertEquals("Worker still running after stop", 0, workerThreads(register));
+    }
+
+    @Test
+    public void testStopLeavesLineAlone() {
+        RegisterWorkers workers = new RegisterWorkers();
+        Register register = new Register();
+        workers.start(register);
+        assertTrue("Register should have had a worker", workers.stop(register));
+        assertFalse("Stopped Register still had a worker", workers.stop(register));
+
+        // nobody is checking out now, so a Shopper stays in line until someone asks
+        Shopper shopper = shopperWithCart();
+        register.addShopper(shopper);
+        assertEquals("Stopped worker took a Shopper from the line", 1, register.getWaitingCount());
+        register.checkoutAll();
+        assertNotNull("Shopper left in line was not checked out", shopper.getReceipt());
+    }
+
+    @Test
+    public void testStopLeavesCallerInterruptState() {
+        RegisterWorkers workers = new RegisterWorkers();
+        Register register = new Register();
+        workers.start(register);
+        Thread.currentThread().interrupt();
+        workers.stop(register);
+        // stopping waits for the worker regardless, and keeps our interrupt for us
+        assertTrue("Caller's interrupt was swallowed", Thread.interrupted());
+        assertEquals("Worker still running after stop", 0, workerThreads(register));
+    }
+
+    @Test
+    public void testInterruptMidCheckoutLeavesArchiveUsable() throws IOException, InterruptedException {
+        try (ReceiptArchive archive = new ReceiptArchive(folder.getRoot().toPath().resolve("receipts.log"))) {
+            Register register = new Register(0, archive);
+            // interrupted on the worker thread part way through its checkout, as stop may do at any moment
+            Shopper interrupted = new Shopper() {
+                @Override
+                protected Cart getCart() {
+                    if (Thread.currentThread().getName().startsWith("register-")) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.getCart();
+                }
+            };
+            // enough lines that archiving this one Receipt fills a whole batch
+            String padding = String.join("", Collections.nCopies(200, "x"));
+            for (int i = 0; i < 400; i++) {
+                interrupted.getCart().addItem(new Item(padding + i, 1.0, 1, "each"));
+            }
+            Shopper next = shopperWithCart();
+
+            RegisterWorkers workers = new RegisterWorkers();
+            workers.start(register);
+            register.addShopper(interrupted);
+            register.addShopper(next);
+            assertNotNull("Interrupted Shopper was not checked out", awaitReceipt(interrupted));
+            workers.stop(register);
+            // the interrupt may have stopped the worker before it got to the next Shopper
+            register.checkoutAll();
+
+            archive.flush();
+            assertEquals("Both checkouts should have been archived", 2, archive.size());
+            assertEquals(400, archive.read(0).getItems().size());
+            assertEquals(next.getReceipt().getItems(), archive.read(1).getItems());
+        }
+    }
+
+    @Test
+    public void testWorkerSurvivesFailedCheckouts() throws IOException, InterruptedException {
+        ReceiptArchive archive = new ReceiptArchive(folder.getRoot().toPath().resolve("receipts.log"));
+        archive.close();
+        Register register = new Register(0, archive);
+        Shopper broken = new Shopper() {
+            @Override
+            protected Cart getCart() {
+                throw new IllegalStateException("Cart lost");
+            }
+        };
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        List<Throwable> reported = Collections.synchronizedList(new ArrayList<>());
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> reported.add(e));
+        RegisterWorkers workers = new RegisterWorkers();
+        try {
+            workers.start(register);
+            register.addShopper(broken);
+            // the archive is closed, but the sale goes through all the same
+            Shopper next = shopperWithCart();
+            register.addShopper(next);
+            assertNotNull("Worker stopped checking out after a failed checkout", awaitReceipt(next));
+            assertEquals("Receipt refused by the closed archive was not counted", 1, register.getUnarchivedReceipts());
+            assertEquals("Failed checkout was not reported", 1, reported.size());
+            assertTrue(reported.get(0) instanceof IllegalStateException);
+        } finally {
+            workers.stop(register);
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+    }
+
+    private static long workerThreads(Register register) {
+        String name = "register-" + register.getId();
+        return Thread.getAllStackTraces().keySet().stream()
+                     .filter(thread -> thread.getName().equals(name) && thread.isAlive())
+                     .count();
+    }
+
+    private static Shopper shopperWithCart() {
+        Shopper shopper = new Shopper();
+        shopper.getCart().addItem(new Item("Test", 1.0, 2, "Packages"));
+        return shopper;
+    }
+
+    private static Receipt awaitReceipt(Shopper shopper) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (shopper.getReceipt() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return shopper.getReceipt();
+    }
+}
@@ -0,0 +1,121 @@
+package net.suzio.store.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test of ShopperEngine running Shoppers on virtual threads
+ */
+public class ShopperEngineTest {
+
+    private static final String BANANAS = "Bananas";
+
+    @Test
+    public void testManyConcurrentShoppers() throws InterruptedException {
+        int shopperCount = 20000;
+        Store store = new Store();
+        store.addItem(new Item(BANANAS, 0.99, shopperCount, "LB"));
+        store.open();
+        store.startRegisters();
+        for (int i = 0; i < 4; i++) {
+            store.addRegister(new Register());
+        }
+
+        List<Shopper> shoppers = new ArrayList<>(shopperCount);
+        try (ShopperEngine engine = new ShopperEngine()) {
+            for (int i = 0; i < shopperCount; i++) {
+                Shopper shopper = new Shopper(store, Collections.singletonList(new Item(BANANAS, 0.99, 1, "LB")));
+                shoppers.add(shopper);
+                engine.start(shopper);
+            }
+            engine.shutdown();
+            assertTrue("Shoppers did not finish", engine.awaitTermination(30, TimeUnit.SECONDS));
+            assertEquals("Finished engine still reports active Shoppers", 0, engine.getActiveCount());
+        }
+
+        assertEquals("Every banana should have been bought", 0, store.queryItem(BANANAS).getQuantity());
+        // Shoppers are done once they are in line; closing checks out anyone the workers have not reached
+        store.shutdownStore();
+        store.run();
+        for (Shopper shopper : shoppers) {
+            assertNotNull("Shopper was not checked out: " + shopper.getId(), shopper.getReceipt());
+        }
+    }
+
+    @Test
+    public void testWaitingShopperBlocksUntilStoreOpens() throws InterruptedException {
+        Store store = new Store();
+        store.addItem(new Item(BANANAS, 0.99, 5, "LB"));
+        store.addRegister(new Register());
+        Thread storeLoop = new Thread(store::run, "store");
+        storeLoop.start();
+        Shopper shopper = new Shopper(store, Collections.singletonList(new Item(BANANAS, 0.99, 2, "LB")), true);
+
+        try (ShopperEngine engine = new ShopperEngine()) {
+            engine.start(shopper);
+            // the Store is closed, so the Shopper is parked in the waiting line and takes nothing
+            Thread.sleep(100);
+            assertEquals("Waiting Shopper should still be running", 1, engine.getActiveCount());
+            assertEquals("Waiting Shopper took stock before the Store opened", 5,
+                         store.queryItem(BANANAS).getQuantity());
+
+            // opening wakes the loop, which lets the Shopper in and then checks them out
+            store.open();
+            engine.shutdown();
+            assertTrue("Released Shopper did not finish", engine.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals("Released Shopper did not shop", 3, store.queryItem(BANANAS).getQuantity());
+        assertNotNull("Released Shopper was not checked out", awaitReceipt(shopper));
+
+        store.shutdownStore();
+        storeLoop.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse("Store loop did not stop", storeLoop.isAlive());
+    }
+
+    @Test
+    public void testClosingTurnsAwayWaitingShoppers() throws InterruptedException {
+        Store store = new Store();
+        store.addItem(new Item(BANANAS, 0.99, 5, "LB"));
+        Shopper shopper = new Shopper(store, Collections.singletonList(new Item(BANANAS, 0.99, 2, "LB")), true);
+
+        try (ShopperEngine engine = new ShopperEngine()) {
+            engine.start(shopper);
+            Thread.sleep(50);
+            // never opened: closing must release the waiting Shopper without letting them shop
+            store.shutdownStore();
+            store.run();
+            engine.shutdown();
+            assertTrue("Waiting Shopper was left blocked", engine.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals("Turned away Shopper took stock", 5, store.queryItem(BANANAS).getQuantity());
+        assertNull("Turned away Shopper was checked out", shopper.getReceipt());
+    }
+
+    @Test
+    public void testInterruptedWaitGivesUp() throws InterruptedException {
+        Store store = new Store();
+        store.addItem(new Item(BANANAS, 0.99, 5, "LB"));
+        Shopper shopper = new Shopper(store, Collections.singletonList(new Item(BANANAS, 0.99, 2, "LB")), true);
+
+        Thread thread = Thread.ofVirtual().start(shopper);
+        Thread.sleep(50);
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse("Interrupted Shopper kept waiting", thread.isAlive());
+        assertEquals("Interrupted Shopper still took stock", 5, store.queryItem(BANANAS).getQuantity());
+    }
+
+    private static Receipt awaitReceipt(Shopper shopper) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (shopper.getReceipt() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return shopper.getReceipt();
+    }
+}
@@ -0,0 +1,153 @@
+package net.suzio.store.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the int-keyed registry of Shoppers in a Store
+ */
+public class ShopperRegistryTest {
+
+    @Test
+    public void testPutAndRemove() {
+        ShopperRegistry registry = new ShopperRegistry();
+        assertTrue(registry.isEmpty());
+        Shopper shopper = new Shopper();
+        assertNull(registry.put(shopper));
+        assertSame("Registering twice should find the first", shopper, registry.put(shopper));
+        assertEquals(1, registry.size());
+
+        assertFalse("A Shopper never registered cannot be removed", registry.remove(new Shopper()));
+        assertTrue(registry.remove(shopper));
+        assertFalse("Removing twice should fail", registry.remove(shopper));
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void testForEachAcrossPages() {
+        ShopperRegistry registry = new ShopperRegistry();
+        List<Shopper> shoppers = new ArrayList<>();
+        for (int i = 0; i < ShopperRegistry.PAGE_SIZE * 3; i++) {
+            Shopper shopper = new Shopper();
+            shoppers.add(shopper);
+            // every other Shopper, so pages have gaps
+            if ((i & 1) == 0) {
+                registry.put(shopper);
+            }
+        }
+        List<Shopper> seen = new ArrayList<>();
+        registry.forEach(seen::add);
+        assertEquals(registry.size(), seen.size());
+        for (int i = 0; i < shoppers.size(); i += 2) {
+            assertTrue("Registered Shopper missed", seen.contains(shoppers.get(i)));
+        }
+    }
+
+    @Test
+    public void testSlotsStayDenseAcrossStores() {
+        // one registry per Store, all drawing on the same ever-growing stream of Shopper ids
+        for (int store = 0; store < 20; store++) {
+            ShopperRegistry registry = new ShopperRegistry();
+            int highestSlot = -1;
+            for (int round = 0; round < 5; round++) {
+                List<Shopper> shoppers = new ArrayList<>();
+                for (int i = 0; i < ShopperRegistry.PAGE_SIZE + 1; i++) {
+                    Shopper shopper = new Shopper();
+                    shoppers.add(shopper);
+                    assertNull(registry.put(shopper));
+                    highestSlot = Math.max(highestSlot, shopper.registrySlot);
+                }
+                for (Shopper shopper : shoppers) {
+                    assertTrue(registry.remove(shopper));
+                    assertEquals("Removed Shopper should give up its slot", -1, shopper.registrySlot);
+                }
+            }
+            assertTrue(registry.isEmpty());
+            assertEquals("Slots should only reach the most Shoppers held at once", ShopperRegistry.PAGE_SIZE,
+                         highestSlot);
+        }
+
+        // a Store opened after all of those still starts from the first slot
+        ShopperRegistry late = new ShopperRegistry();
+        Shopper shopper = new Shopper();
+        late.put(shopper);
+        assertEquals(0, shopper.registrySlot);
+    }
+
+    @Test
+    public void testConcurrentPutAndRemoveReuseSlots() throws InterruptedException {
+        ShopperRegistry registry = new ShopperRegistry();
+        int threads = 4;
+        int perThread = 20000;
+        // each thread keeps at most 8 Shoppers registered at once
+        int[] highest = new int[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                Shopper[] held = new Shopper[8];
+                for (int i = 0; i < perThread; i++) {
+                    int at = i & 7;
+                    if (held[at] != null) {
+                        assertTrue(registry.remove(held[at]));
+                    }
+                    held[at] = new Shopper();
+                    assertNull(registry.put(held[at]));
+                    highest[index] = Math.max(highest[index], held[at].registrySlot);
+                }
+                for (Shopper shopper : held) {
+                    assertTrue(registry.remove(shopper));
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertTrue(registry.isEmpty());
+        for (int slot : highest) {
+            // 8 held per thread, plus at most one per thread removed but not yet back on the free stack
+            assertTrue("Slot " + slot + " handed out with at most 32 Shoppers registered", slot < threads * 9);
+        }
+        AtomicInteger seen = new AtomicInteger();
+        registry.forEach(shopper -> seen.incrementAndGet());
+        assertEquals(0, seen.get());
+    }
+
+    @Test
+    public void testParallelSignalReachesEveryone() throws InterruptedException {
+        ShopperRegistry registry = new ShopperRegistry();
+        int count = 50000;
+        List<Thread> adders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread adder = new Thread(() -> {
+                for (int i = 0; i < count / 4; i++) {
+                    registry.put(new Shopper());
+                }
+            });
+            adders.add(adder);
+            adder.start();
+        }
+        for (Thread adder : adders) {
+            adder.join();
+        }
+        assertEquals(count, registry.size());
+
+        Set<Integer> signalled = ConcurrentHashMap.newKeySet();
+        AtomicInteger calls = new AtomicInteger();
+        registry.forEachParallel(shopper -> {
+            calls.incrementAndGet();
+            signalled.add(shopper.getId());
+        });
+        assertEquals("Every Shopper should be signalled exactly once", count, calls.get());
+        assertEquals(count, signalled.size());
+    }
+}
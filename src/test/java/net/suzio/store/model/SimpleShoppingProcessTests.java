@@ -17,6 +17,13 @@ import static org.mockito.Mockito.when;
  */
 public class SimpleShoppingProcessTests {
 
+    // Mocked Store stock: hand back whatever the basket names, in full
+    private static Map<String, Item> takeFrom(Map<String, Item> stock, Map<String, Integer> basket) {
+        Map<String, Item> taken = new HashMap<>();
+        basket.keySet().forEach(name -> taken.put(name, stock.get(name)));
+        return taken;
+    }
+
     @Test
     public void testShopGetsAllItemsExactly() {
         Store store = mock(Store.class);
@@ -35,12 +42,11 @@ public class SimpleShoppingProcessTests {
         when(store.startShopperCheckout(any(Shopper.class))).thenReturn(true);
 
         // Store must return back anything we ask for
-        when(store.takeItem(anyString(), anyInt())).then(invoke -> {
-            String name = invoke.getArgument(0);
-            return itemsMap.get(name);
-        });
+        when(store.takeItems(anyMap())).then(invoke -> takeFrom(itemsMap, invoke.getArgument(0)));
 
         Shopper shopper = new Shopper(store, items);
+        // a real Store signals this once shopping may start; the mock never will
+        shopper.allowShop();
         shopper.run();
 
         // Expect a shopping list full of empty items
@@ -101,15 +107,14 @@ public class SimpleShoppingProcessTests {
         when(store.startShopper(any(Shopper.class))).thenReturn(true);
 
         // Store must return back anything we ask for
-        when(store.takeItem(anyString(), anyInt())).then(invoke -> {
-            String name = invoke.getArgument(0);
-            return itemsMap.get(name);
-        });
+        when(store.takeItems(anyMap())).then(invoke -> takeFrom(itemsMap, invoke.getArgument(0)));
 
         //.. but fail at checkout
         when(store.startShopperCheckout(any(Shopper.class))).thenReturn(false);
 
         Shopper shopper = new Shopper(store, items);
+        // a real Store signals this once shopping may start; the mock never will
+        shopper.allowShop();
         shopper.run();
 
         // Shopper should have empty Cart, but none of the items on its list have been fulfilled
@@ -0,0 +1,97 @@
+package net.suzio.store.model;
+
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the metrics a Store keeps about itself
+ */
+public class StoreMetricsTest {
+
+    private static final String BANANAS = "Bananas";
+
+    @Test
+    public void testTakesCounted() {
+        Store store = new Store();
+        store.addItem(new Item(BANANAS, 0.99, 5, "LB"));
+        store.takeItem(BANANAS, 2);
+        store.takeItem(BANANAS, 10);
+        store.takeItem("Grapes", 1);
+
+        Map<String, Integer> basket = new HashMap<>();
+        basket.put(BANANAS, 1);
+        basket.put("Milk", 1);
+        store.takeItems(basket);
+
+        StoreMetrics metrics = store.getMetrics();
+        assertEquals("Fills", 1, metrics.getTakeFills());
+        // the sold-out banana from the basket is a partial fill too: it got none of what it asked for
+        assertEquals("Partial fills", 2, metrics.getTakePartialFills());
+        assertEquals("Misses", 2, metrics.getTakeMisses());
+    }
+
+    @Test
+    public void testCheckoutAndLinesRecorded() {
+        Store store = new Store();
+        store.addItem(new Item(BANANAS, 0.99, 5, "LB"));
+        Register register = new Register();
+        store.addRegister(register);
+        StoreMetrics metrics = store.getMetrics();
+
+        Shopper first = new Shopper(store, Collections.singletonList(new Item(BANANAS, 0.99, 1, "LB")));
+        Shopper second = new Shopper(store, Collections.singletonList(new Item(BANANAS, 0.99, 1, "LB")));
+        assertTrue(store.startShopperCheckout(first));
+        assertTrue(store.startShopperCheckout(second));
+        assertArrayEquals("Live depth should show both Shoppers in line", new int[]{2}, metrics.getRegisterQueueDepths());
+        assertEquals("Second Shopper should have seen the longer line", 2, metrics.getRegisterQueueDepthMax());
+
+        register.checkoutAll();
+        assertEquals(2, metrics.getCheckouts());
+        assertTrue("Checkout latency should be positive", metrics.getCheckoutLatencyMeanMicros() > 0.0);
+        assertArrayEquals(new int[]{0}, metrics.getRegisterQueueDepths());
+
+        // a removed Register no longer reports to the Store
+        store.removeRegister(register);
+        register.addShopper(new Shopper());
+        register.checkoutAll();
+        assertEquals(2, metrics.getCheckouts());
+        assertEquals(0, metrics.getRegisterQueueDepths().length);
+    }
+
+    @Test
+    public void testWaitingLineRecorded() {
+        Store store = new Store();
+        assertTrue(store.startShopper(new Shopper(store, Collections.emptyList(), true)));
+        assertTrue(store.startShopper(new Shopper(store, Collections.emptyList(), true)));
+        StoreMetrics metrics = store.getMetrics();
+        assertEquals(2, metrics.getWaitingShoppers());
+        assertEquals(2, metrics.getWaitingLineMax());
+        assertEquals(1.5, metrics.getWaitingLineMean(), 0.0);
+    }
+
+    @Test
+    public void testPublishedOverJmx() throws JMException {
+        Store store = new Store();
+        store.takeItem(BANANAS, 1);
+        StoreMetrics metrics = store.getMetrics();
+        ObjectName name = metrics.publish("metrics-test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertTrue(server.isRegistered(name));
+            assertEquals(1L, server.getAttribute(name, "TakeMisses"));
+            assertEquals(0, server.getAttribute(name, "WaitingShoppers"));
+        } finally {
+            metrics.unpublish();
+        }
+        assertFalse("Unpublished metrics still registered", server.isRegistered(name));
+    }
+}
@@ -1,9 +1,15 @@
 package net.suzio.store.model;
 
+import net.suzio.store.model.util.ItemUtil;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -83,6 +89,210 @@ public class StoreTest {
         assertNull("call to removeRegister should have returned null in case of a null value", remove);
     }
 
+    @Test
+    public void testStartedRegistersCheckOut() throws InterruptedException {
+        Store store = new Store();
+        store.open();
+        store.startRegisters();
+        // added after starting, so it should get a worker of its own
+        store.addRegister(new Register());
+
+        Shopper shopper = new Shopper();
+        shopper.getCart().addItem(new Item(BANANAS, 0.99, 3, "LB"));
+        assertTrue("Checkout was refused", store.startShopperCheckout(shopper));
+
+        // nothing calls run(), so only the Register's worker can check this Shopper out
+        long deadline = System.currentTimeMillis() + 10000;
+        while (shopper.getReceipt() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertNotNull("Started Register did not check out Shopper", shopper.getReceipt());
+
+        // closing stops the workers and removes every Register
+        store.shutdownStore();
+        store.run();
+        assertFalse("Checkout allowed after close", store.startShopperCheckout(new Shopper()));
+    }
+
+    @Test
+    public void testCheckoutSpreadsAcrossRegisters() {
+        Store store = new Store();
+        Register first = store.addRegister(new Register());
+        Register second = store.addRegister(new Register());
+        for (int i = 0; i < 6; i++) {
+            assertTrue("Checkout was refused", store.startShopperCheckout(new Shopper()));
+        }
+        // nobody is checking out, so shortest-queue assignment must have alternated
+        assertEquals("Lines were not balanced", 3, first.getWaitingCount());
+        assertEquals("Lines were not balanced", 3, second.getWaitingCount());
+    }
+
+    @Test
+    public void testCheckoutFailsWhenAllLinesFull() {
+        Store store = new Store();
+        Register register = store.addRegister(new Register(1));
+        assertTrue("Checkout was refused with room in line", store.startShopperCheckout(new Shopper()));
+        assertFalse("Checkout succeeded with every line full", store.startShopperCheckout(new Shopper()));
+        assertEquals(1, register.getWaitingCount());
+    }
+
+    @Test
+    public void testCustomRegisterAssignment() {
+        Store store = new Store();
+        store.addRegister(new Register());
+        Register last = store.addRegister(new Register());
+        store.setRegisterAssignment((registers, shopper) -> last);
+        store.startShopperCheckout(new Shopper());
+        store.startShopperCheckout(new Shopper());
+        assertEquals("Custom assignment was not used", 2, last.getWaitingCount());
+    }
+
+    @Test
+    public void testCloseWaitsOnlyForLastShopper() throws InterruptedException {
+        Store store = new Store();
+        store.open();
+        store.addRegister(new Register());
+        // well past how long the Shopper takes, so finishing early proves close did not just time out
+        store.setDrainTimeout(30, TimeUnit.SECONDS);
+
+        Shopper slow = new Shopper();
+        assertTrue(store.startShopper(slow));
+        Thread late = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            store.startShopperCheckout(slow);
+        });
+        late.start();
+
+        // already shut down, so run() makes one pass and closes
+        store.shutdownStore();
+        long start = System.nanoTime();
+        store.run();
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        late.join();
+        assertTrue("Close did not wait for the Shopper: " + tookMillis + "ms", tookMillis >= 150);
+        assertTrue("Close waited past the last Shopper: " + tookMillis + "ms", tookMillis < 10000);
+        assertNotNull("Shopper reaching checkout in time was not checked out", slow.getReceipt());
+    }
+
+    @Test
+    public void testCloseGivesUpAfterDrainTimeout() {
+        Store store = new Store();
+        store.open();
+        store.setDrainTimeout(100, TimeUnit.MILLISECONDS);
+        // tracked, but never runs, so never reaches checkout
+        assertTrue(store.startShopper(new Shopper()));
+
+        // already shut down, so run() makes one pass and closes
+        store.shutdownStore();
+        long start = System.nanoTime();
+        store.run();
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Close ignored the drain timeout: " + tookMillis + "ms", tookMillis < 5000);
+    }
+
+    @Test
+    public void testCloseWithoutShoppersDoesNotWait() {
+        Store store = new Store();
+        store.open();
+        Shopper done = new Shopper();
+        store.startShopper(done);
+        store.startShopperCheckout(done);
+
+        // already shut down, so run() makes one pass and closes
+        store.shutdownStore();
+        long start = System.nanoTime();
+        store.run();
+        assertTrue("Close waited with nobody shopping",
+                   TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    @Test
+    public void testMainLoopRunsFullDay() throws InterruptedException {
+        int shopperCount = 5000;
+        Store store = new Store();
+        store.addItem(new Item(BANANAS, 0.99, shopperCount, "LB"));
+        store.setIdlePolicy(Store.IdlePolicy.SPIN_THEN_BLOCK);
+        // Registers are not started, so every checkout happens on the main loop
+        store.addRegister(new Register());
+        store.addRegister(new Register());
+        Thread storeLoop = new Thread(store::run, "store");
+        storeLoop.start();
+        store.open();
+
+        List<Shopper> shoppers = new ArrayList<>(shopperCount);
+        try (ShopperEngine engine = new ShopperEngine()) {
+            for (int i = 0; i < shopperCount; i++) {
+                Shopper shopper = new Shopper(store, Collections.singletonList(new Item(BANANAS, 0.99, 1, "LB")));
+                shoppers.add(shopper);
+                engine.start(shopper);
+            }
+            engine.shutdown();
+            assertTrue("Shoppers did not finish", engine.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        // the loop keeps checking out while Shoppers are in line, with no further events needed
+        long deadline = System.currentTimeMillis() + 10000;
+        while (shoppers.stream().anyMatch(s -> s.getReceipt() == null) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        for (Shopper shopper : shoppers) {
+            assertNotNull("Shopper was not checked out during the day: " + shopper.getId(), shopper.getReceipt());
+        }
+
+        store.shutdownStore();
+        storeLoop.join(10000);
+        assertFalse("Store loop did not stop on shutdown", storeLoop.isAlive());
+        assertTrue("Store still open after its day", store.isClosed());
+        assertEquals("Every banana should have been bought", 0, store.queryItem(BANANAS).getQuantity());
+    }
+
+    @Test
+    public void testTickCatchesUnsignalledWork() throws InterruptedException {
+        Store store = new Store();
+        Register register = store.addRegister(new Register());
+        store.setTickInterval(20, TimeUnit.MILLISECONDS);
+        Thread storeLoop = new Thread(store::run, "store");
+        storeLoop.start();
+        try {
+            // added straight to the Register, so the Store hears nothing; only a tick finds this Shopper
+            Shopper shopper = new Shopper();
+            register.addShopper(shopper);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (shopper.getReceipt() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertNotNull("Tick did not check out Shopper", shopper.getReceipt());
+        } finally {
+            store.shutdownStore();
+            storeLoop.join(10000);
+        }
+    }
+
+    @Test
+    public void testInterruptStopsMainLoop() throws InterruptedException {
+        Store store = new Store();
+        Thread storeLoop = new Thread(store::run, "store");
+        storeLoop.start();
+        Thread.sleep(50);
+        storeLoop.interrupt();
+        storeLoop.join(10000);
+        assertFalse("Interrupt did not stop the Store loop", storeLoop.isAlive());
+        assertNull("Store still accepts Registers after interrupt closed it", store.addRegister(new Register()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTickInterval() {
+        new Store().setTickInterval(-1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDrainTimeout() {
+        new Store().setDrainTimeout(-1, TimeUnit.SECONDS);
+    }
+
     @Test
     public void storeLineLimit() {
         int lineLimit = 5;
@@ -236,5 +446,76 @@ public class StoreTest {
         Item nothing = store.takeItem("unknown", 1);
         assertNull("should not have received valid Item from an unknown item name", nothing);
     }
-}
 
+    @Test
+    public void testTakeItems() {
+        Store store = new Store();
+        store.addItem(new Item(MILK, 2.99, 3, GALLON));
+        store.addItem(new Item(BANANAS, 0.99, 1, "LB"));
+
+        Map<String, Integer> basket = new HashMap<>();
+        basket.put(MILK, 2);
+        basket.put(BANANAS, 4);
+        basket.put("unknown", 1);
+        Map<String, Item> taken = store.takeItems(basket);
+
+        assertEquals("Basket fill has wrong number of Items", 2, taken.size());
+        assertEquals("Item taken from stock has wrong quantity", 2, taken.get(MILK).getQuantity());
+        assertEquals("Short Item should be partially filled", 1, taken.get(BANANAS).getQuantity());
+        assertFalse("Unknown Item should be missing from basket fill", taken.containsKey("unknown"));
+
+        assertEquals("Stock has wrong quantity after basket fill", 1, store.queryItem(MILK).getQuantity());
+        assertEquals("Stock has wrong quantity after basket fill", 0, store.queryItem(BANANAS).getQuantity());
+    }
+
+    @Test
+    public void testAddItemsMergesInOrder() {
+        Store store = new Store();
+        Map<String, Item> stocked = store.addItems(Arrays.asList(new Item("Bananas", 0.99, 2, "LB"),
+                                                            new Item("Bananas", 0.99, -3, "LB"),
+                                                            new Item("Bananas", 0.89, 1, "LB")));
+        // the middle Item would take stock negative, so it is refused just as addItem refuses it
+        assertEquals(new Item("Bananas", 0.89, 3, "LB"), stocked.get("Bananas"));
+        assertEquals(stocked.get("Bananas"), store.queryItem("Bananas"));
+    }
+
+    @Test
+    public void testFailedCheckoutRestocksWholeCart() {
+        Store store = new Store();
+        store.addItem(new Item("Bananas", 0.99, 5, "LB"));
+        store.addItem(new Item("Milk", 2.99, 1, "Gallon"));
+        store.open();
+        Shopper shopper = new Shopper(store, Arrays.asList(new Item("Bananas", 0.99, 3, "LB"),
+                                                           new Item("Milk", 2.99, 2, "Gallon")));
+        // no Registers, so checkout fails and everything goes back
+        shopper.shop();
+
+        assertEquals(5, store.queryItem("Bananas").getQuantity());
+        assertEquals(1, store.queryItem("Milk").getQuantity());
+        assertTrue("Cart should be empty after a failed checkout", shopper.getCart().getItems().isEmpty());
+        Map<String, Item> list = ItemUtil.itemsToMap(shopper.getShoppingList());
+        assertEquals("List should want everything again", 3, list.get("Bananas").getQuantity());
+        assertEquals("List should want everything again", 2, list.get("Milk").getQuantity());
+    }
+
+    @Test
+    public void testRestocksQueuedWhileLoopRuns() throws InterruptedException {
+        Store store = new Store();
+        store.addItem(new Item("Bananas", 0.99, 0, "LB"));
+        Thread storeLoop = new Thread(store::run, "store");
+        storeLoop.start();
+        int carts = 1000;
+        for (int i = 0; i < carts; i++) {
+            store.restock(Collections.singletonList(new Item("Bananas", 0.99, 2, "LB")));
+        }
+        store.shutdownStore();
+        storeLoop.join(5000);
+        assertFalse("Store loop did not finish", storeLoop.isAlive());
+        assertEquals("Queued returns were lost", 2 * carts, store.queryItem("Bananas").getQuantity());
+        assertEquals("Nothing should be left queued", 0, store.flushRestocks());
+
+        // with the loop gone, returns merge straight away
+        store.restock(Collections.singletonList(new Item("Bananas", 0.99, 1, "LB")));
+        assertEquals(2 * carts + 1, store.queryItem("Bananas").getQuantity());
+    }
+}
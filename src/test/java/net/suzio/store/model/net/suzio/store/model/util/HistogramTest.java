@@ -0,0 +1,78 @@
+package net.suzio.store.model.net.suzio.store.model.util;
+
+import net.suzio.store.model.util.Histogram;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the lock-free Histogram
+ */
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void testPercentilesWithinBucket() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.0);
+        assertEquals(100, histogram.getMax());
+        // 50 falls in the [32, 63] bucket
+        assertEquals(63, histogram.getPercentile(0.5));
+        // 99 falls in [64, 127], capped at the largest value seen
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(1, histogram.getPercentile(0.0));
+    }
+
+    @Test
+    public void testZeroAndNegative() {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(-5);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(1.0));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        int threads = 8;
+        int perThread = 100000;
+        List<Thread> recorders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread recorder = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i);
+                }
+            });
+            recorders.add(recorder);
+            recorder.start();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        assertEquals("Lost a recording", (long) threads * perThread, histogram.getCount());
+        assertEquals(perThread - 1, histogram.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadPercentile() {
+        new Histogram().getPercentile(1.5);
+    }
+}
@@ -0,0 +1,53 @@
+package net.suzio.store.model.net.suzio.store.model.util;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.util.ItemCollectors;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the Item folding Collector
+ */
+public class ItemCollectorsTest {
+
+    @Test
+    public void testFoldsLikeMerge() {
+        List<Item> items = Arrays.asList(new Item("Bananas", 0.99, 1, "LB"),
+                                         new Item("Milk", 2.99, 1, "Gallon"),
+                                         new Item("Bananas", 1.09, 3, "LB"));
+        Map<String, Item> folded = items.stream().collect(ItemCollectors.folding());
+        assertEquals(2, folded.size());
+        assertEquals("Quantities should add and the later price win", Item.merge(items.get(0), items.get(2)),
+                     folded.get("Bananas"));
+        assertEquals(items.get(1), folded.get("Milk"));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        // many names, each repeated with a price that changes along the list
+        List<Item> items = new ArrayList<>();
+        IntStream.range(0, 100000).forEach(i -> items.add(new Item("Item " + (i % 500), 1 + (i / 500), 2, "Each")));
+
+        Map<String, Item> sequential = items.stream().collect(ItemCollectors.folding());
+        Map<String, Item> parallel = items.parallelStream().collect(ItemCollectors.folding());
+        assertEquals("Parallel fold differs from sequential", sequential, parallel);
+        Item last = sequential.get("Item 0");
+        assertEquals("Every repeat should have been counted", 400, last.getQuantity());
+        assertEquals("Last price in encounter order should win", 200.0, last.getPrice(), 0.0);
+    }
+
+    @Test
+    public void testResultIsModifiable() {
+        Map<String, Item> folded = Arrays.asList(new Item("Bananas", 0.99, 1, "LB")).stream()
+                                         .collect(ItemCollectors.folding());
+        folded.put("Milk", new Item("Milk", 2.99, 1, "Gallon"));
+        assertEquals(2, folded.size());
+    }
+}
@@ -0,0 +1,102 @@
+package net.suzio.store.model.net.suzio.store.model.util;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Register;
+import net.suzio.store.model.Store;
+import net.suzio.store.model.util.LockProfiler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of lock contention profiling. Profiling is global, so every test leaves it off and empty
+ */
+public class LockProfilerTest {
+
+    @Before
+    public void setUp() {
+        LockProfiler.reset();
+    }
+
+    @After
+    public void tearDown() {
+        LockProfiler.disable();
+        LockProfiler.reset();
+    }
+
+    @Test
+    public void testDisabledHandsBackLock() {
+        Lock lock = new ReentrantLock();
+        assertSame("Disabled profiling should not wrap", lock, LockProfiler.site("test", "disabled").wrap(lock));
+    }
+
+    @Test
+    public void testRecordsContention() throws InterruptedException {
+        LockProfiler.enable();
+        LockProfiler.Site site = LockProfiler.site("test", "contended");
+        ReentrantLock lock = new ReentrantLock();
+        CountDownLatch held = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            Lock wrapped = site.wrap(lock);
+            wrapped.lock();
+            try {
+                held.countDown();
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                wrapped.unlock();
+            }
+        });
+        holder.start();
+        assertTrue(held.await(5, TimeUnit.SECONDS));
+
+        Lock wrapped = site.wrap(lock);
+        wrapped.lock();
+        wrapped.unlock();
+        holder.join();
+
+        assertEquals(2, site.getAcquisitions());
+        assertEquals("Second acquisition should have waited", 1, site.getContended());
+        assertTrue("Wait should cover most of the hold", site.getWaitNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue("Hold should be recorded", site.getHoldNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertFalse("Lock left held", lock.isLocked());
+    }
+
+    @Test
+    public void testStoreSitesReported() throws IOException {
+        LockProfiler.enable();
+        Store store = new Store();
+        store.addItem(new Item("Bananas", 0.99, 5, "LB"));
+        store.takeItem("Bananas", 2);
+        store.queryItem("Bananas");
+        store.addRegister(new Register());
+
+        List<LockProfiler.Site> report = LockProfiler.report();
+        assertTrue(hasSite(report, "stock/take"));
+        // lookups read optimistically, so an uncontended one takes no lock at all
+        assertFalse(hasSite(report, "stock/query"));
+        assertTrue(hasSite(report, "registerLock/addRegister"));
+        // a brand new Item is stocked without taking its lock
+        assertFalse(hasSite(report, "stock/add"));
+        store.addItem(new Item("Bananas", 0.99, 5, "LB"));
+        assertTrue(hasSite(LockProfiler.report(), "stock/add"));
+
+        String text = LockProfiler.writeReport(new StringBuilder()).toString();
+        assertTrue("Report should have a header", text.startsWith("site"));
+        assertTrue("Report should list each site", text.contains("stock/take"));
+    }
+
+    private static boolean hasSite(List<LockProfiler.Site> report, String name) {
+        return report.stream().anyMatch(site -> site.getName().equals(name));
+    }
+}
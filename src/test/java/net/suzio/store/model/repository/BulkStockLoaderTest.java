@@ -0,0 +1,90 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of loading stock from CSV
+ */
+public class BulkStockLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadsLikeMerge() throws IOException {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        String csv = "name,price,quantity,units\n" +
+                     "Apples,2.99,5,Lb\n" +
+                     "\n" +
+                     "# repriced mid-file\n" +
+                     "Apples,3.49,2,Lb\n" +
+                     "Crackers, Salted,1.5,3,Box\n" +
+                     // refused, like an addItem that would go negative
+                     "Apples,3.49,-100,Lb\n";
+
+        long loaded = new BulkStockLoader(stock).load(new StringReader(csv));
+        assertEquals("Every Item line should count, refused or not", 4, loaded);
+        assertEquals(new Item("Apples", 3.49, 7, "Lb"), stock.find("Apples"));
+        assertEquals("Name should keep its comma", new Item("Crackers, Salted", 1.5, 3, "Box"),
+                     stock.find("Crackers, Salted"));
+    }
+
+    @Test
+    public void testManyBatchesKeepFileOrder() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stock.csv");
+        int skus = 2000;
+        int rounds = 5;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int round = 1; round <= rounds; round++) {
+                for (int sku = 0; sku < skus; sku++) {
+                    // price goes up each round, so only the last line for a name should set its price
+                    out.write("Item " + sku + "," + round + ".25,1,Each\n");
+                }
+            }
+        }
+
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        // small batches and several parsers, so batches finish out of order
+        long loaded = new BulkStockLoader(stock, 97, 4).load(file);
+        assertEquals(skus * rounds, loaded);
+        assertEquals(skus, stock.findAll().size());
+        for (Item item : stock.findAll()) {
+            assertEquals("Lost or repeated an Item line for " + item.getName(), rounds, item.getQuantity());
+            assertEquals("Batches applied out of order for " + item.getName(), rounds + 0.25, item.getPrice(), 0.0);
+        }
+    }
+
+    @Test
+    public void testBadLineNamed() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        String csv = "Apples,2.99,5,Lb\nGrapes,cheap,1,Lb\n";
+        try {
+            new BulkStockLoader(stock).load(new StringReader(csv));
+            fail("Malformed line was loaded");
+        } catch (IOException e) {
+            assertTrue("Error should name the bad line: " + e.getMessage(), e.getMessage().startsWith("Line 2:"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooFewFields() throws IOException {
+        new BulkStockLoader(new InMemoryItemRepository()).load(new StringReader("Apples,5,Lb\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyBatch() {
+        new BulkStockLoader(new InMemoryItemRepository(), 0, 1);
+    }
+}
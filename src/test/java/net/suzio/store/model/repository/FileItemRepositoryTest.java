@@ -0,0 +1,143 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the file-backed repository: what goes in must come back after the repository is reopened, whether it was
+ * closed cleanly or not
+ */
+public class FileItemRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStockSurvivesReopen() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stock.dat");
+        Item apples = new Item("Apples", 2.99, 4, "Lb");
+        Item grapes = new Item("Grapes", 3.99, 2, "Lb");
+
+        try (FileItemRepository stock = new FileItemRepository(file)) {
+            stock.merge(apples);
+            stock.merge(grapes);
+            stock.take("Apples", 3);
+            stock.merge(new Item("Steak", 3.99, 5, "Lb"));
+            stock.delete("Steak");
+        }
+
+        try (FileItemRepository reopened = new FileItemRepository(file)) {
+            assertEquals("Reopened stock has wrong number of Items", 2, reopened.findAll().size());
+            assertEquals("Take was not persisted", new Item("Apples", 2.99, 1, "Lb"), reopened.find("Apples"));
+            assertEquals("Merge was not persisted", grapes, reopened.find("Grapes"));
+            assertNull("Delete was not persisted", reopened.find("Steak"));
+        }
+    }
+
+    @Test
+    public void testMergeAllSurvivesReopen() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stock.dat");
+        try (FileItemRepository stock = new FileItemRepository(file)) {
+            stock.mergeAll(Arrays.asList(new Item("Apples", 2.99, 4, "Lb"),
+                                         new Item("Grapes", 3.99, 2, "Lb"),
+                                         new Item("Apples", 2.99, 1, "Lb")));
+        }
+        try (FileItemRepository reopened = new FileItemRepository(file)) {
+            assertEquals("Batch was not persisted", new Item("Apples", 2.99, 5, "Lb"), reopened.find("Apples"));
+            assertEquals("Batch was not persisted", new Item("Grapes", 3.99, 2, "Lb"), reopened.find("Grapes"));
+        }
+    }
+
+    @Test
+    public void testFlushWithoutChangesLeavesNoFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stock.dat");
+        FileItemRepository stock = new FileItemRepository(file);
+        stock.flush();
+        assertFalse("Unchanged stock should not be written", Files.exists(file));
+
+        stock.merge(new Item("Apples", 2.99, 4, "Lb"));
+        stock.flush();
+        assertTrue("Changed stock was not written", Files.exists(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsForeignFile() throws IOException {
+        Path file = folder.newFile("not-stock.dat").toPath();
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        new FileItemRepository(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOlderVersion() throws IOException {
+        Path file = folder.newFile("old-stock.dat").toPath();
+        // "STK1", version 2
+        Files.write(file, new byte[]{0x53, 0x54, 0x4B, 0x31, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        new FileItemRepository(file);
+    }
+
+    @Test
+    public void testOverlongNameRefusedBeforeStocking() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stock.dat");
+        String name = String.join("", Collections.nCopies(70000, "x"));
+        try (FileItemRepository stock = new FileItemRepository(file)) {
+            try {
+                stock.merge(new Item(name, 2.99, 4, "Lb"));
+                fail("Name too long to journal should be refused");
+            } catch (IllegalArgumentException expected) {
+                // not truncated into the journal
+            }
+            assertNull("Refused Item was stocked anyway", stock.find(name));
+        }
+    }
+
+    @Test
+    public void testJournalSurvivesCrash() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stock.dat");
+
+        // never closed or flushed: only the journal knows about these changes
+        FileItemRepository crashed = new FileItemRepository(file);
+        crashed.merge(new Item("Apples", 2.99, 4, "Lb"));
+        crashed.take("Apples", 1);
+        crashed.merge(new Item("Grapes", 3.99, 2, "Lb"));
+        crashed.delete("Grapes");
+        assertFalse("No snapshot should have been written yet", Files.exists(file));
+
+        try (FileItemRepository recovered = new FileItemRepository(file)) {
+            assertEquals("Journaled take was not replayed", new Item("Apples", 2.99, 3, "Lb"), recovered.find("Apples"));
+            assertNull("Journaled delete was not replayed", recovered.find("Grapes"));
+        }
+    }
+
+    @Test
+    public void testBackgroundCheckpointCompactsJournal() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("stock.dat");
+
+        // a tiny segment limit means nearly every batch triggers a snapshot
+        try (FileItemRepository stock = new FileItemRepository(file, FileItemRepository.Durability.SYNC, 64)) {
+            stock.merge(new Item("Apples", 2.99, 100, "Lb"));
+            for (int i = 0; i < 50; i++) {
+                stock.take("Apples", 1);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("Background checkpoint never wrote a snapshot", Files.exists(file));
+            stock.take("Apples", 10);
+        }
+
+        try (FileItemRepository reopened = new FileItemRepository(file)) {
+            assertEquals("Snapshot plus journal tail did not restore stock", 40, reopened.find("Apples").getQuantity());
+        }
+    }
+}
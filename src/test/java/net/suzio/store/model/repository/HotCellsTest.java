@@ -0,0 +1,109 @@
+package net.suzio.store.model.repository;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the striped quantity cells behind hot SKUs
+ */
+public class HotCellsTest {
+
+    @Test
+    public void testSpreadsEvenly() {
+        HotCells cells = new HotCells(4, null, 10);
+        assertEquals(4, cells.cellCount());
+        assertEquals(10, cells.sum());
+        HotCells negative = new HotCells(4, null, -2);
+        assertEquals("A negative quantity must still add up", -2, negative.sum());
+        assertEquals("Nothing can be taken from a negative quantity", 0, negative.take(1));
+        assertEquals(-2, negative.freeze());
+    }
+
+    @Test
+    public void testFrozenCellsRefuseTakes() {
+        HotCells cells = new HotCells(4, null, 10);
+        assertEquals(3, cells.take(3));
+        assertEquals("Freeze should return exactly what is left", 7, cells.freeze());
+        assertEquals("Frozen cells should give nothing and say so", -1, cells.take(1));
+        assertEquals(0, cells.sum());
+        assertEquals("A second freeze finds nothing left", 0, cells.freeze());
+    }
+
+    @Test
+    public void testCellCountRoundedToPowerOfTwo() {
+        assertEquals(2, new HotCells(1, null, 0).cellCount());
+        assertEquals(8, new HotCells(5, null, 0).cellCount());
+        assertEquals(8, new HotCells(8, null, 0).cellCount());
+    }
+
+    @Test
+    public void testTakeBorrowsFromNeighbours() {
+        // one unit per cell, so no single cell can fill the request
+        HotCells cells = new HotCells(8, null, 8);
+        assertEquals("Take should gather from every cell", 6, cells.take(6));
+        assertEquals(2, cells.sum());
+        assertEquals("Partial fill should take what is left", 2, cells.take(5));
+        assertEquals(0, cells.sum());
+        assertEquals(0, cells.take(1));
+    }
+
+    @Test
+    public void testConcurrentTakesNeverOversell() throws InterruptedException {
+        int stocked = 100000;
+        HotCells cells = new HotCells(8, null, stocked);
+        AtomicInteger taken = new AtomicInteger();
+        List<Thread> takers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread taker = new Thread(() -> {
+                // ask for more than there is in total, so the cells must run dry
+                for (int i = 0; i < stocked / 4; i++) {
+                    taken.addAndGet(cells.take(1 + (i & 3)));
+                }
+            });
+            takers.add(taker);
+            taker.start();
+        }
+        for (Thread taker : takers) {
+            taker.join();
+        }
+        assertEquals("Oversold or lost stock", stocked, taken.get());
+        assertEquals(0, cells.sum());
+    }
+
+    @Test
+    public void testFreezeWhileTakingLosesNothing() throws InterruptedException {
+        int stocked = 100000;
+        HotCells cells = new HotCells(8, null, stocked);
+        AtomicInteger taken = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(4);
+        List<Thread> takers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread taker = new Thread(() -> {
+                started.countDown();
+                while (true) {
+                    int got = cells.take(3);
+                    if (got < 0) {
+                        // what was taken before the freeze still counts
+                        taken.addAndGet(-got - 1);
+                        return;
+                    }
+                    taken.addAndGet(got);
+                }
+            });
+            takers.add(taker);
+            taker.start();
+        }
+        started.await();
+        int frozen = cells.freeze();
+        for (Thread taker : takers) {
+            taker.join();
+        }
+        assertEquals("Units taken plus units frozen should be every unit stocked", stocked, taken.get() + frozen);
+    }
+}
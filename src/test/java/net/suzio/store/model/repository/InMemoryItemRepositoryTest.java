@@ -0,0 +1,351 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Money;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the per-Item locked in-memory repository. Store semantics are covered in StoreTest; these focus on
+ * repository operations and on what happens when many threads work the stock at once.
+ */
+public class InMemoryItemRepositoryTest {
+
+    private static final String APPLES = "Apples";
+    private static final String GRAPES = "Grapes";
+
+    @Test
+    public void testPartialFillLeavesZeroStocked() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.merge(new Item(APPLES, 2.99, 3, "Lb"));
+
+        Item taken = stock.take(APPLES, 5);
+        assertEquals("Partial fill should hand out all available stock", 3, taken.getQuantity());
+
+        Item remaining = stock.find(APPLES);
+        assertNotNull("Item sold out should stay in stock", remaining);
+        assertEquals("Item sold out should have zero quantity", 0, remaining.getQuantity());
+    }
+
+    @Test
+    public void testNegativeMergeRejected() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        Item oneApple = new Item(APPLES, 2.99, 1, "Lb");
+        stock.merge(oneApple);
+
+        Item result = stock.merge(new Item(APPLES, 2.99, -2, "Lb"));
+        assertEquals("Negative merge should leave existing Item in place", oneApple, result);
+        assertEquals("Negative merge should leave existing Item in place", oneApple, stock.find(APPLES));
+    }
+
+    @Test
+    public void testRepriceKeepsQuantity() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.merge(new Item(APPLES, 2.99, 4, "Lb"));
+        stock.merge(new Item(APPLES, 3.49, 0, "Lb"));
+
+        Item repriced = stock.find(APPLES);
+        assertEquals("Reprice did not take effect", 3.49, repriced.getPrice(), 0.0);
+        assertEquals("Reprice changed quantity", 4, repriced.getQuantity());
+    }
+
+    @Test
+    public void testSaveReplacesWithoutMerge() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.merge(new Item(APPLES, 2.99, 4, "Lb"));
+        Item replacement = new Item(APPLES, 1.99, 1, "Each");
+
+        assertSame("save should return the saved Item", replacement, stock.save(replacement));
+        assertEquals("save should replace, not merge", replacement, stock.find(APPLES));
+    }
+
+    @Test
+    public void testDelete() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        Item apples = new Item(APPLES, 2.99, 4, "Lb");
+        stock.merge(apples);
+
+        assertEquals("delete should return the removed Item", apples, stock.delete(APPLES));
+        assertNull("deleted Item still found", stock.find(APPLES));
+        assertNull("deleted Item could still be taken", stock.take(APPLES, 1));
+        assertNull("deleting twice should find nothing", stock.delete(APPLES));
+        assertTrue("deleted Item still listed", stock.findAll().isEmpty());
+
+        // and a deleted name can be stocked again from scratch
+        Item restocked = new Item(APPLES, 3.99, 2, "Lb");
+        assertSame(restocked, stock.merge(restocked));
+        assertEquals(2, stock.find(APPLES).getQuantity());
+    }
+
+    @Test
+    public void testTakeBySku() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        assertEquals("Unknown Item should have no SKU", -1, stock.skuOf(APPLES));
+        stock.merge(new Item(APPLES, 2.99, 3, "Lb"));
+
+        int sku = stock.skuOf(APPLES);
+        assertTrue("Stocked Item should have a SKU", sku >= 0);
+        assertEquals("Take by SKU returned wrong count", 2, stock.take(sku, 2));
+        assertEquals("Take by SKU should partially fill", 1, stock.take(sku, 2));
+        assertEquals("Take by SKU should leave zero stocked", 0, stock.find(APPLES).getQuantity());
+
+        stock.delete(APPLES);
+        assertEquals("Take by SKU of deleted Item should say so", -1, stock.take(sku, 1));
+    }
+
+    @Test
+    public void testManySkus() {
+        // enough to spill over several pages of the stock table
+        int count = 5000;
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        for (int i = 0; i < count; i++) {
+            stock.merge(new Item("Item-" + i, 1.00, i, "each"));
+        }
+        assertEquals(count, stock.findAll().size());
+        for (int i = 0; i < count; i += 997) {
+            assertEquals("Item-" + i + " has wrong quantity", i, stock.find("Item-" + i).getQuantity());
+        }
+    }
+
+    @Test
+    public void testConcurrentTakesNeverOversell() throws InterruptedException {
+        int stocked = 10_000;
+        int threads = 8;
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.merge(new Item(APPLES, 2.99, stocked, "Lb"));
+        stock.merge(new Item(GRAPES, 3.99, stocked, "Lb"));
+
+        AtomicInteger applesTaken = new AtomicInteger();
+        AtomicInteger grapesTaken = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            // half the threads hammer each Item, and every thread asks for more than its share
+            boolean apples = (t % 2) == 0;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < stocked; i++) {
+                    if (apples) {
+                        applesTaken.addAndGet(stock.take(APPLES, 1).getQuantity());
+                    } else {
+                        grapesTaken.addAndGet(stock.take(GRAPES, 1).getQuantity());
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals("Apples oversold or undersold", stocked, applesTaken.get());
+        assertEquals("Grapes oversold or undersold", stocked, grapesTaken.get());
+        assertEquals(0, stock.find(APPLES).getQuantity());
+        assertEquals(0, stock.find(GRAPES).getQuantity());
+    }
+
+    @Test
+    public void testMergeAllFollowsMergeRulesInOrder() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.merge(new Item(GRAPES, 3.99, 1, "Lb"));
+        List<Item> batch = Arrays.asList(new Item(APPLES, 2.99, 5, "Lb"),
+                                         new Item(GRAPES, 3.99, 2, "Lb"),
+                                         // refused: only 5 Apples at this point
+                                         new Item(APPLES, 2.99, -10, "Lb"),
+                                         new Item(APPLES, 3.49, 10, "Lb"),
+                                         // accepted now that there are 15
+                                         new Item(APPLES, 3.49, -10, "Lb"));
+
+        Map<String, Item> stocked = stock.mergeAll(batch);
+        assertEquals(2, stocked.size());
+        assertEquals("Batch should merge one Item at a time", new Item(APPLES, 3.49, 5, "Lb"), stocked.get(APPLES));
+        assertEquals(new Item(GRAPES, 3.99, 3, "Lb"), stocked.get(GRAPES));
+        assertEquals(stocked.get(APPLES), stock.find(APPLES));
+        assertEquals(stocked.get(GRAPES), stock.find(GRAPES));
+    }
+
+    @Test
+    public void testMergeAllReportsEveryChange() {
+        List<Item> heard = new ArrayList<>();
+        InMemoryItemRepository stock = new InMemoryItemRepository((name, item) -> heard.add(item));
+        stock.mergeAll(Arrays.asList(new Item(APPLES, 2.99, 5, "Lb"),
+                                     new Item(APPLES, 2.99, -10, "Lb"),
+                                     new Item(APPLES, 2.99, 2, "Lb")));
+        // the refused merge changes nothing, so nothing is heard of it
+        assertEquals(Arrays.asList(new Item(APPLES, 2.99, 5, "Lb"), new Item(APPLES, 2.99, 7, "Lb")), heard);
+    }
+
+    @Test
+    public void testReadsNeverSeeHalfAWrite() throws InterruptedException {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.save(new Item(APPLES, 0.01, 1, "Lb"));
+        int writes = 20000;
+        AtomicInteger torn = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        // every Item written has a price in cents equal to its quantity, so a mismatch means a torn read
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= writes; i++) {
+                stock.save(new Item(APPLES, Money.ofCents(i), i, "Lb"));
+            }
+            done.countDown();
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(() -> {
+                while (done.getCount() > 0) {
+                    Item item = stock.find(APPLES);
+                    if (item.getUnitPrice().getCents() != item.getQuantity()) {
+                        torn.incrementAndGet();
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        writer.start();
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals("Reads saw price and quantity from different writes", 0, torn.get());
+        assertEquals(writes, stock.find(APPLES).getQuantity());
+    }
+
+    @Test
+    public void testHotItemNeverOversells() throws InterruptedException {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        int stocked = 50000;
+        stock.merge(new Item(APPLES, 2.99, stocked, "Lb"));
+        stock.makeHot(APPLES);
+        assertTrue(stock.isHot(APPLES));
+
+        int restocks = 1000;
+        AtomicInteger taken = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 6; t++) {
+            Thread taker = new Thread(() -> {
+                for (int i = 0; i < stocked; i++) {
+                    taken.addAndGet(stock.take(APPLES, 2).getQuantity());
+                }
+            });
+            threads.add(taker);
+        }
+        // restocking and repricing a hot Item works on all of its cells at once
+        threads.add(new Thread(() -> {
+            for (int i = 0; i < restocks; i++) {
+                stock.merge(new Item(APPLES, 2.99 + (i & 1), 1, "Lb"));
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("Hot Item oversold or lost stock", stocked + restocks,
+                     taken.get() + stock.find(APPLES).getQuantity());
+    }
+
+    @Test
+    public void testHotItemRepricedTakesNewPrice() {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.merge(new Item(APPLES, 2.99, 10, "Lb"));
+        stock.makeHot(APPLES);
+        assertEquals(2.99, stock.take(APPLES, 2).getPrice(), 0.001);
+
+        stock.save(new Item(APPLES, 3.49, 20, "Lb"));
+        Item taken = stock.take(APPLES, 5);
+        assertEquals("Take after a reprice should be at the new price", 3.49, taken.getPrice(), 0.001);
+        assertEquals(5, taken.getQuantity());
+        assertEquals(15, stock.find(APPLES).getQuantity());
+        assertTrue("Item should stay hot across writes", stock.isHot(APPLES));
+    }
+
+    @Test
+    public void testContentionMakesItemHot() throws InterruptedException {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        stock.setHotThreshold(1);
+        stock.merge(new Item(APPLES, 2.99, 0, "Lb"));
+        assertFalse(stock.isHot(APPLES));
+
+        // long batches hold the Item's lock, so sooner or later a take has to wait for one
+        List<Item> batch = Collections.nCopies(20000, new Item(APPLES, 2.99, 1, "Lb"));
+        Thread restocker = new Thread(() -> {
+            while (!stock.isHot(APPLES)) {
+                stock.mergeAll(batch);
+            }
+        });
+        restocker.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!stock.isHot(APPLES) && System.currentTimeMillis() < deadline) {
+            stock.take(APPLES, 1);
+        }
+        restocker.join();
+        assertTrue("Contended Item was not made hot", stock.isHot(APPLES));
+    }
+
+    @Test
+    public void testTakesRacingPromotionNeverOversell() throws InterruptedException {
+        InMemoryItemRepository stock = new InMemoryItemRepository();
+        // the first take that waits makes an Item hot, so promotion happens over and over across many Items
+        stock.setHotThreshold(1);
+        int itemCount = 64;
+        int stocked = 1000;
+        List<Item> restock = new ArrayList<>();
+        for (int i = 0; i < itemCount; i++) {
+            stock.merge(new Item("Item-" + i, 1.0, stocked, "Each"));
+            // long runs of one name hold its lock, so takes queue up behind them
+            restock.addAll(Collections.nCopies(500, new Item("Item-" + i, 1.0, 1, "Each")));
+        }
+
+        AtomicInteger taken = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    taken.addAndGet(stock.take("Item-" + ((i + offset) % itemCount), 3).getQuantity());
+                }
+            }));
+        }
+        threads.add(new Thread(() -> stock.mergeAll(restock)));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int remaining = 0;
+        for (Item item : stock.findAll()) {
+            remaining += item.getQuantity();
+        }
+        assertEquals("Takes racing a SKU going hot oversold or lost stock", itemCount * stocked + restock.size(),
+                     taken.get() + remaining);
+    }
+
+    @Test
+    public void testListenedStockStaysCold() {
+        InMemoryItemRepository stock = new InMemoryItemRepository((name, item) -> { });
+        stock.merge(new Item(APPLES, 2.99, 5, "Lb"));
+        stock.makeHot(APPLES);
+        assertFalse("Every take must reach the listener in order, so no cells", stock.isHot(APPLES));
+    }
+}
@@ -0,0 +1,206 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import net.suzio.store.model.Money;
+import net.suzio.store.model.Receipt;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the Receipt archive: records read back whole, lookups by id, Register and time, and crash recovery
+ */
+public class ReceiptArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadBack() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        List<Item> items = Arrays.asList(new Item("Bananas", 0.99, 3, "LB"), new Item("Milk", 2.99, 2, "Gallon"));
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            int id = archive.append(new Receipt(items, 7, 1000L));
+            assertEquals("First Receipt should get id 0", 0, id);
+
+            // still in the batch; reading must find it anyway
+            Receipt read = archive.read(id);
+            assertEquals(items, read.getItems());
+            assertEquals(7, read.getRegisterId());
+            assertEquals(1000L, read.getTimestamp());
+            assertEquals(Money.ofCents(895), read.getTotal());
+        }
+    }
+
+    @Test
+    public void testLookups() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            for (int i = 0; i < 10; i++) {
+                archive.append(receipt(i % 3, 1000L + i * 10));
+            }
+            assertArrayEquals("Register lookup wrong", new int[]{1, 4, 7}, archive.idsForRegister(1));
+            assertArrayEquals("Unknown Register should have no Receipts", new int[0], archive.idsForRegister(42));
+            assertArrayEquals("Time range lookup wrong", new int[]{2, 3, 4}, archive.idsBetween(1020L, 1050L));
+            assertArrayEquals("Empty time range", new int[0], archive.idsBetween(5000L, 6000L));
+            assertArrayEquals("Backwards time range", new int[0], archive.idsBetween(1050L, 1020L));
+        }
+    }
+
+    @Test
+    public void testTimeNeverGoesBackwards() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            archive.append(receipt(0, 2000L));
+            // a Register that stamped its Receipt a moment before the last one archived
+            int late = archive.append(receipt(1, 1990L));
+            assertEquals(2000L, archive.read(late).getTimestamp());
+            assertArrayEquals(new int[]{0, 1}, archive.idsBetween(2000L, 2001L));
+        }
+    }
+
+    @Test
+    public void testReopenContinues() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        // enough to fill several batches
+        int count = 5000;
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            for (int i = 0; i < count; i++) {
+                archive.append(receipt(i % 4, i));
+            }
+        }
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            assertEquals("Reopened archive lost Receipts", count, archive.size());
+            assertEquals("Ids should carry on after reopen", count, archive.append(receipt(0, count)));
+            assertEquals(count / 4 + 1, archive.idsForRegister(0).length);
+            assertEquals(1234L, archive.read(1234).getTimestamp());
+        }
+    }
+
+    @Test
+    public void testRecoversFromCrash() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        Path index = file.resolveSibling("receipts.log.idx");
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            for (int i = 0; i < 3; i++) {
+                archive.append(receipt(i, 100L + i));
+            }
+        }
+        // lose the last index entry, and tear a record onto the end of the log
+        byte[] indexBytes = Files.readAllBytes(index);
+        Files.write(index, Arrays.copyOf(indexBytes, indexBytes.length - 20 - 7));
+        Files.write(file, new byte[]{0, 0, 0, 99, 1, 2}, StandardOpenOption.APPEND);
+
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            assertEquals("Complete records should all survive", 3, archive.size());
+            assertArrayEquals("Index entry was not rebuilt from the log", new int[]{2}, archive.idsForRegister(2));
+            int next = archive.append(receipt(5, 200L));
+            assertEquals(3, next);
+            assertEquals("Record after a repaired tail reads back wrong", 5, archive.read(next).getRegisterId());
+        }
+    }
+
+    @Test
+    public void testDropsIndexEntryForTornRecord() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            for (int i = 0; i < 3; i++) {
+                archive.append(receipt(i, 100L + i));
+            }
+        }
+        // the index made it to disk whole, but the last record only in part
+        byte[] logBytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(logBytes, logBytes.length - 5));
+
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            assertEquals("Entry for the torn record should be dropped", 2, archive.size());
+            assertArrayEquals(new int[0], archive.idsForRegister(2));
+            int next = archive.append(receipt(5, 200L));
+            assertEquals(2, next);
+            assertEquals(5, archive.read(next).getRegisterId());
+            assertEquals(1, archive.read(1).getRegisterId());
+        }
+    }
+
+    @Test
+    public void testTrustsIndexBeforeLastEntry() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            for (int i = 0; i < 3; i++) {
+                archive.append(receipt(i, 100L + i));
+            }
+        }
+        // damage the first record's body: opening does not read it, but reading it back finds out
+        byte[] logBytes = Files.readAllBytes(file);
+        logBytes[8 + 8 + 20] ^= 0x7F;
+        Files.write(file, logBytes);
+
+        try (ReceiptArchive archive = new ReceiptArchive(file)) {
+            assertEquals(3, archive.size());
+            assertEquals(2, archive.read(2).getRegisterId());
+            try {
+                archive.read(0);
+                fail("Corrupt record should not read back");
+            } catch (IOException expected) {
+                // caught by its checksum
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testForeignFileRefused() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("receipts.log");
+        Files.write(file, "not receipts at all".getBytes());
+        new ReceiptArchive(file).close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendAfterClose() throws IOException {
+        ReceiptArchive archive = new ReceiptArchive(folder.getRoot().toPath().resolve("receipts.log"));
+        archive.close();
+        archive.append(receipt(0, 0));
+    }
+
+    @Test
+    public void testAppendFailsFastOnceWriteFails() throws IOException {
+        ReceiptArchive archive = new ReceiptArchive(folder.getRoot().toPath().resolve("receipts.log"));
+        archive.append(receipt(0, 0));
+        // an interrupted write closes the channel for good
+        Thread.currentThread().interrupt();
+        try {
+            archive.flush();
+            fail("Interrupted flush should have failed");
+        } catch (IOException expected) {
+            // the archive is broken now
+        } finally {
+            Thread.interrupted();
+        }
+        try {
+            archive.append(receipt(0, 1));
+            fail("Append to a broken archive should fail rather than batch up Receipts that can never be written");
+        } catch (UncheckedIOException expected) {
+            // nothing more is taken
+        }
+        assertEquals(1, archive.size());
+        try {
+            archive.close();
+        } catch (IOException expected) {
+            // close reports the failure too
+        }
+    }
+
+    private static Receipt receipt(int registerId, long timestamp) {
+        return new Receipt(Collections.singletonList(new Item("Bananas", 0.99, 1, "LB")), registerId, timestamp);
+    }
+}
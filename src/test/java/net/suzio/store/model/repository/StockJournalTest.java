@@ -0,0 +1,120 @@
+package net.suzio.store.model.repository;
+
+import net.suzio.store.model.Item;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the stock journal on its own: records come back in order, and a torn tail is ignored
+ */
+public class StockJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayInOrder() throws IOException {
+        Path base = folder.getRoot().toPath().resolve("stock.dat");
+        try (StockJournal journal = new StockJournal(base, Long.MAX_VALUE, () -> { })) {
+            journal.append("Apples", new Item("Apples", 2.99, 4, "Lb"));
+            journal.append("Apples", new Item("Apples", 2.99, 3, "Lb"));
+            journal.append("Grapes", null);
+            journal.sync();
+        }
+
+        List<Item> replayed = new ArrayList<>();
+        StockJournal.replay(base, 0, (name, item) -> replayed.add(item));
+        assertEquals("Replay returned wrong number of records", 3, replayed.size());
+        assertEquals(new Item("Apples", 2.99, 4, "Lb"), replayed.get(0));
+        assertEquals(new Item("Apples", 2.99, 3, "Lb"), replayed.get(1));
+        assertNull("Delete should replay as a null Item", replayed.get(2));
+    }
+
+    @Test
+    public void testTornTailIgnored() throws IOException {
+        Path base = folder.getRoot().toPath().resolve("stock.dat");
+        try (StockJournal journal = new StockJournal(base, Long.MAX_VALUE, () -> { })) {
+            journal.append("Apples", new Item("Apples", 2.99, 4, "Lb"));
+        }
+        // half a record header, as if we crashed mid-write
+        Files.write(base.resolveSibling("stock.dat.journal.0"), new byte[]{0, 0, 0, 42, 1},
+                    StandardOpenOption.APPEND);
+
+        List<Item> replayed = new ArrayList<>();
+        StockJournal.replay(base, 0, (name, item) -> replayed.add(item));
+        assertEquals("Torn record should be dropped, complete ones kept", 1, replayed.size());
+    }
+
+    @Test
+    public void testOverlongNameRejected() throws IOException {
+        Path base = folder.getRoot().toPath().resolve("stock.dat");
+        String name = String.join("", Collections.nCopies(70000, "x"));
+        try (StockJournal journal = new StockJournal(base, Long.MAX_VALUE, () -> { })) {
+            try {
+                journal.append(name, new Item(name, 2.99, 4, "Lb"));
+                fail("Name longer than its length prefix should be rejected, not truncated");
+            } catch (IllegalArgumentException expected) {
+                // nothing recorded
+            }
+            journal.append("Apples", new Item("Apples", 2.99, 4, "Lb"));
+        }
+
+        List<Item> replayed = new ArrayList<>();
+        StockJournal.replay(base, 0, (n, item) -> replayed.add(item));
+        assertEquals(Collections.singletonList(new Item("Apples", 2.99, 4, "Lb")), replayed);
+    }
+
+    @Test
+    public void testAppendFailsFastOnceWriterFails() throws IOException, InterruptedException {
+        Path base = folder.getRoot().toPath().resolve("stock.dat");
+        StockJournal journal = new StockJournal(base, Long.MAX_VALUE, () -> { });
+        // an interrupted writer gives up for good
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("stock-journal-stock.dat")) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+        try {
+            journal.append("Apples", new Item("Apples", 2.99, 4, "Lb"));
+            fail("Append should fail rather than batch up records that can never be written");
+        } catch (UncheckedIOException expected) {
+            // nothing more is taken
+        }
+        try {
+            journal.close();
+            fail("Close should report the failure");
+        } catch (IOException expected) {
+            // the writer's failure
+        }
+    }
+
+    @Test
+    public void testRotateStartsNewSegment() throws IOException {
+        Path base = folder.getRoot().toPath().resolve("stock.dat");
+        try (StockJournal journal = new StockJournal(base, Long.MAX_VALUE, () -> { })) {
+            journal.append("Apples", new Item("Apples", 2.99, 4, "Lb"));
+            long next = journal.rotate();
+            assertEquals("First rotation should start segment 1", 1, next);
+            journal.append("Apples", new Item("Apples", 2.99, 1, "Lb"));
+            journal.deleteBefore(next);
+        }
+
+        List<Item> replayed = new ArrayList<>();
+        StockJournal.replay(base, 0, (name, item) -> replayed.add(item));
+        assertEquals("Only the record after rotation should remain", 1, replayed.size());
+        assertEquals(1, replayed.get(0).getQuantity());
+    }
+}